@@ -0,0 +1,62 @@
+package nu.mine.mosher;
+
+import nu.mine.mosher.gedcom.SyntheticGedcom;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.Collator;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares sorting names by comparing them with the collator (which normalizes
+ * both strings on every comparison), versus by precomputed sort keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollationBenchmark {
+    @Param({ "100000" })
+    public int count;
+
+    private List<String> names;
+    private byte[][] keys;
+
+    @Setup
+    public void setUp() {
+        this.names = SyntheticGedcom.names(this.count, 1L);
+        final Collator collator = Util.createCollator();
+        this.keys = new byte[this.names.size()][];
+        for (int i = 0; i < this.keys.length; ++i) {
+            this.keys[i] = Util.sortKey(collator, this.names.get(i));
+        }
+    }
+
+    @Benchmark
+    public List<String> sortWithCollator() {
+        final Collator collator = Util.createCollator();
+        final List<String> sorted = new ArrayList<>(this.names);
+        sorted.sort(collator::compare);
+        return sorted;
+    }
+
+    @Benchmark
+    public byte[][] sortWithKeys() {
+        final byte[][] sorted = this.keys.clone();
+        Arrays.sort(sorted, Util::compareSortKeys);
+        return sorted;
+    }
+
+    /* computing the keys is paid once, at load time */
+    @Benchmark
+    public byte[][] computeKeys() {
+        final Collator collator = Util.createCollator();
+        final byte[][] computed = new byte[this.names.size()][];
+        for (int i = 0; i < computed.length; ++i) {
+            computed[i] = Util.sortKey(collator, this.names.get(i));
+        }
+        return computed;
+    }
+}
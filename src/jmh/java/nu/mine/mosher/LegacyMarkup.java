@@ -0,0 +1,31 @@
+package nu.mine.mosher;
+
+/**
+ * The original (chained replace and replaceAll) implementations of
+ * {@link Util#esc}, {@link Util#qq}, and {@link Util#links},
+ * kept to check that the current ones give identical results,
+ * and to compare their speed.
+ */
+final class LegacyMarkup {
+    private LegacyMarkup() {
+        throw new IllegalStateException();
+    }
+
+    static String esc(final String s) {
+        return s
+            .replace("&", "&amp;")
+            .replace("<","&lt;")
+            .replace(">","&gt;")
+            .replace("\"","&quot;");
+    }
+
+    static String qq(final String s) {
+        return s.replaceAll("(^|\\W)\"(\\S.*?\\S)\"(\\W|$)", "$1\u201c$2\u201d$3");
+    }
+
+    static String links(final String s) {
+        return esc(s)
+            .replaceAll("\\b(\\w+?://\\S+?)(\\s|[<>{}\"|\\\\^`\\]]|$)", "<a href=\"$1\">$1</a>$2")
+            .replaceAll("([^/.]www\\.[a-zA-Z]\\S*?)(\\s|[<>{}\"|\\\\^`\\]]|$)", "<a href=\"http://$1\">$1</a>$2");
+    }
+}
@@ -0,0 +1,156 @@
+package nu.mine.mosher;
+
+import java.net.URI;
+import java.net.http.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Load test of a running server: keeps the given number of requests (each
+ * on its own connection) in flight for the given time, and reports the
+ * throughput and the latency percentiles. Given several URLs (for example,
+ * the same page from a server with VIRTUAL_THREADS=true, and from one
+ * without), tests each in turn, and prints the results side by side.
+ *
+ * Usage: LoadTest url[,url...] [connections (1000)] [seconds (30)]
+ *
+ * (Each connection needs a file descriptor, at both ends; check ulimit -n.)
+ */
+public final class LoadTest {
+    private static final Duration WARM_UP = Duration.ofSeconds(5L);
+    private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9 };
+
+    private LoadTest() {
+        throw new IllegalStateException();
+    }
+
+    public static void main(final String... args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: LoadTest url[,url...] [connections] [seconds]");
+            System.exit(1);
+        }
+        final int connections = 1 < args.length ? Integer.parseInt(args[1]) : 1000;
+        final Duration duration = Duration.ofSeconds(2 < args.length ? Long.parseLong(args[2]) : 30L);
+
+        final List<String> rows = new ArrayList<>();
+        for (final String url : args[0].split(",")) {
+            System.err.println("warming up: "+url);
+            run(url, connections, WARM_UP);
+            System.err.println("testing: "+url+" ("+connections+" connections, "+duration.getSeconds()+" s)");
+            rows.add(run(url, connections, duration).toString());
+        }
+
+        System.out.println(Result.HEADING);
+        rows.forEach(System.out::println);
+    }
+
+    private static Result run(final String url, final int connections, final Duration duration) throws InterruptedException {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(url)).header("Accept-Encoding", "gzip").build();
+        final ExecutorService callbacks = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        /* (HTTP/1.1 has one request in flight per connection, so the client opens one connection for each) */
+        final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(callbacks).build();
+        final long start = System.nanoTime();
+        final long deadline = start + duration.toNanos();
+        final List<Connection> all = new ArrayList<>(connections);
+        final CountDownLatch done = new CountDownLatch(connections);
+        for (int i = 0; i < connections; ++i) {
+            final Connection connection = new Connection(client, request, deadline, done);
+            all.add(connection);
+            connection.next();
+        }
+        done.await();
+        final long elapsed = System.nanoTime() - start;
+        callbacks.shutdown();
+        return new Result(url, connections, elapsed, all);
+    }
+
+    /* one connection, sending one request after another, until the deadline */
+    private static final class Connection {
+        private final HttpClient client;
+        private final HttpRequest request;
+        private final long deadline;
+        private final CountDownLatch done;
+        private long[] latencies = new long[1024];
+        private int count;
+        private int errors;
+
+        private Connection(final HttpClient client, final HttpRequest request, final long deadline, final CountDownLatch done) {
+            this.client = client;
+            this.request = request;
+            this.deadline = deadline;
+            this.done = done;
+        }
+
+        private void next() {
+            final long start = System.nanoTime();
+            if (this.deadline <= start) {
+                this.done.countDown();
+                return;
+            }
+            this.client.sendAsync(this.request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+                if (e != null || response.statusCode() != 200) {
+                    ++this.errors;
+                } else {
+                    record(System.nanoTime() - start);
+                }
+                next();
+            });
+        }
+
+        private void record(final long nanos) {
+            if (this.count == this.latencies.length) {
+                this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+            }
+            this.latencies[this.count++] = nanos;
+        }
+    }
+
+    private static final class Result {
+        private static final String HEADING = String.format("%-40s %6s %10s %8s %8s %8s %8s %8s %8s",
+            "url", "conns", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+
+        private final String url;
+        private final int connections;
+        private final double throughput;
+        private final long[] sorted;
+        private final int errors;
+
+        private Result(final String url, final int connections, final long elapsed, final List<Connection> all) {
+            this.url = url;
+            this.connections = connections;
+            int n = 0;
+            int e = 0;
+            for (final Connection c : all) {
+                n += c.count;
+                e += c.errors;
+            }
+            this.sorted = new long[n];
+            int i = 0;
+            for (final Connection c : all) {
+                System.arraycopy(c.latencies, 0, this.sorted, i, c.count);
+                i += c.count;
+            }
+            Arrays.sort(this.sorted);
+            this.errors = e;
+            this.throughput = n * 1e9 / elapsed;
+        }
+
+        private double millis(final double percentile) {
+            if (this.sorted.length == 0) {
+                return Double.NaN;
+            }
+            final int i = (int)Math.ceil(percentile / 100.0 * this.sorted.length) - 1;
+            return this.sorted[Math.max(0, Math.min(this.sorted.length - 1, i))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(String.format("%-40s %6d %10.1f", this.url, this.connections, this.throughput));
+            for (final double p : PERCENTILES) {
+                sb.append(String.format(" %8.1f", millis(p)));
+            }
+            return sb.append(String.format(" %8.1f %8d", millis(100.0), this.errors)).toString();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package nu.mine.mosher;
+
+import nu.mine.mosher.gedcom.SyntheticGedcom;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original and current implementations of escaping, quoting, and
+ * linking (as applied to plain transcripts: links(qq(s))). Before measuring,
+ * checks that both give identical results for every string in a large
+ * corpus (typical citation strings, plus random strings made from the
+ * fragments that matter to the patterns); if not, setup fails, and the
+ * first difference is reported.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkupBenchmark {
+    private static final String[] FRAGMENTS = {
+        "http://", "https://", "ftp://", "://", "www.", "www", ".", "/", ":", "example.com", "x", "Page 12",
+        " ", "  ", "\t", "\n", "\"", "\"", "'", "&", "<", ">", "{", "}", "|", "\\", "^", "`", "]", "[", ";", ",",
+        "\u00e9", "\u201c", "_", "-", "1850", "a"
+    };
+
+    private List<String> corpus;
+
+    @Setup
+    public void setUp() {
+        this.corpus = corpus(200_000, 1L);
+        for (final String s : this.corpus) {
+            check("esc", s, LegacyMarkup.esc(s), Util.esc(s));
+            check("qq", s, LegacyMarkup.qq(s), Util.qq(s));
+            check("links", s, LegacyMarkup.links(s), Util.links(s));
+            check("links(qq)", s, LegacyMarkup.links(LegacyMarkup.qq(s)), Util.links(Util.qq(s)));
+        }
+    }
+
+    static List<String> corpus(final int count, final long seed) {
+        final List<String> corpus = new ArrayList<>(count + 16);
+        corpus.addAll(SyntheticGedcom.samplePages());
+        corpus.add("");
+        corpus.add("He said \"hello\" and left; see https://example.com/source/1 for more.");
+        corpus.add("See http://www.example.com/a?b=www.example.org and \"www.example.net\".");
+        corpus.add("Film 1234567, \"Births,\" p. 33 <http://example.com/x> {www.example.com}");
+
+        final Random rnd = new Random(seed);
+        while (corpus.size() < count) {
+            final StringBuilder sb = new StringBuilder(64);
+            final int n = 1 + rnd.nextInt(20);
+            for (int i = 0; i < n; ++i) {
+                sb.append(FRAGMENTS[rnd.nextInt(FRAGMENTS.length)]);
+            }
+            corpus.add(sb.toString());
+        }
+        return corpus;
+    }
+
+    private static void check(final String what, final String s, final String expected, final String actual) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(what + " differs for [" + s + "]: expected [" + expected + "] but was [" + actual + "]");
+        }
+    }
+
+    @Benchmark
+    public int legacy() {
+        int n = 0;
+        for (final String s : this.corpus.subList(0, 1000)) {
+            n += LegacyMarkup.links(LegacyMarkup.qq(s)).length();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int current() {
+        int n = 0;
+        for (final String s : this.corpus.subList(0, 1000)) {
+            n += Util.links(Util.qq(s)).length();
+        }
+        return n;
+    }
+}
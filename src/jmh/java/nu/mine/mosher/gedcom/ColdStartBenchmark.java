@@ -0,0 +1,75 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.model.Loader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares loading a (large, generated) GEDCOM file by parsing it,
+ * versus reading it back from a snapshot; and times building a whole
+ * handler (loading, then indexing UUIDs across files) from scratch.
+ * Fails (rather than timing parsing twice) if the snapshot cannot be
+ * written, or read back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ColdStartBenchmark {
+    @Param({ "10000", "100000" })
+    public int people;
+
+    private Path dir;
+    private File fileGedcom;
+    private GedcomFilesHandler parsing;
+    private GedcomSnapshotStore snapshots;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("gedcom-bench");
+        this.fileGedcom = SyntheticGedcom.writeIn(this.dir, this.people, 1L);
+
+        this.parsing = new GedcomFilesHandler(new GedcomSnapshotStore(null));
+        this.snapshots = new GedcomSnapshotStore(this.dir.resolve("snapshots"));
+        /* writes the snapshot */
+        new GedcomFilesHandler(this.snapshots).load(this.fileGedcom);
+        readSnapshot(GedcomSnapshotStore.hash(this.fileGedcom));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        try (final Stream<Path> paths = Files.walk(this.dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public Object parse() throws Exception {
+        return this.parsing.load(this.fileGedcom);
+    }
+
+    @Benchmark
+    public Object handler() throws Exception {
+        final GedcomFilesHandler handler = new GedcomFilesHandler(new GedcomSnapshotStore(null));
+        handler.load(Collections.singletonList(this.fileGedcom));
+        return handler;
+    }
+
+    /* (as GedcomFilesHandler.load does, when there is a snapshot) */
+    @Benchmark
+    public Object snapshot() throws Exception {
+        return new LoadedGedcom(readSnapshot(GedcomSnapshotStore.hash(this.fileGedcom)), this.fileGedcom.lastModified());
+    }
+
+    private Loader readSnapshot(final String hash) {
+        return this.snapshots.read(this.fileGedcom.getName(), hash).orElseThrow(() ->
+            new IllegalStateException("No snapshot of "+this.fileGedcom.getName()+" could be read (see the log for why)."));
+    }
+}
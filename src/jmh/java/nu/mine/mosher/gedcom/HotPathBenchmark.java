@@ -0,0 +1,141 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.*;
+import nu.mine.mosher.collection.NoteList;
+import nu.mine.mosher.gedcom.model.*;
+import nu.mine.mosher.template.TemplAtEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each of the steps of serving a person page (and the index page)
+ * from a (generated) GEDCOM file of the given size: gathering footnotes,
+ * styling citations (legacy and TEI) and transcripts (HTML, plain),
+ * building the whole view model, and rendering the whole page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotPathBenchmark {
+    private static final TemplAtEngine TEMPLATES = new TemplAtEngine(false);
+
+    @Param({ "2000", "50000" })
+    public int people;
+
+    private Person person;
+    private Citation legacy;
+    private Citation tei;
+    private String html;
+    private String plain;
+    private Object[] argsPerson;
+    private Object[] argsIndex;
+
+    @Setup
+    public void setUp() throws Exception {
+        final LoadedGedcom loaded = SyntheticGedcom.loaded(this.people, 1L);
+        final Loader loader = loaded.loader();
+        this.person = SyntheticGedcom.mostEvents(loader.getAllPeople());
+
+        for (final Person p : loader.getAllPeople()) {
+            final NoteList notes = GedcomFilesHandler.getFootnotesFor(p);
+            for (int i = 1; i <= notes.size(); ++i) {
+                if (notes.getNote(i) instanceof Citation) {
+                    final Citation cita = (Citation)notes.getNote(i);
+                    if (cita.getPage().startsWith("<bibl")) {
+                        this.tei = cita;
+                    } else {
+                        this.legacy = cita;
+                    }
+                    final String text = cita.getSource().getText();
+                    if (Objects.isNull(text)) {
+                        continue;
+                    }
+                    if (text.contains("<table")) {
+                        this.html = text;
+                    } else if (text.contains("://")) {
+                        this.plain = text;
+                    }
+                }
+            }
+        }
+        if (this.tei == null || this.legacy == null || this.html == null || this.plain == null) {
+            throw new IllegalStateException("generated file is missing some kinds of citation");
+        }
+
+        final RbacRole role = new RbacRole(true, true);
+        this.argsPerson = new Object[] {
+            this.person, "synthetic.ged", Collections.emptyList(), new PersonView(this.person),
+            "../..", role, "client", loader.getCopyright() };
+        this.argsIndex = new Object[] {
+            loaded.personIndex().page(role, 0, 1000), "synthetic.ged", loader.getCopyright(), "../..", role, "client" };
+        TEMPLATES.preload("person.tat", "personIndex.tat");
+    }
+
+    @Benchmark
+    public Object footnotes() {
+        return GedcomFilesHandler.getFootnotesFor(this.person);
+    }
+
+    /* footnotes, styled citations, and the rest of the person page's view model */
+    @Benchmark
+    public Object view() {
+        return new PersonView(this.person);
+    }
+
+    @Benchmark
+    public String styleCitationLegacy() {
+        return Util.styleCitation(this.legacy);
+    }
+
+    /* TEI transforms are cached, so this mostly times the cache */
+    @Benchmark
+    public String styleCitationTei() {
+        return Util.styleCitation(this.tei);
+    }
+
+    /* the TEI transform itself, bypassing the cache */
+    @Benchmark
+    public String teiTransform() throws Exception {
+        return Util.teiStyle(this.tei.getPage());
+    }
+
+    @Benchmark
+    public String styleTranscriptHtml() {
+        return Util.styleTranscript(this.html);
+    }
+
+    @Benchmark
+    public String links() {
+        return Util.links(this.plain);
+    }
+
+    @Benchmark
+    public String qq() {
+        return Util.qq(this.plain);
+    }
+
+    @Benchmark
+    public byte[] renderPerson() throws IOException {
+        return render("person.tat", this.argsPerson);
+    }
+
+    @Benchmark
+    public byte[] renderPersonIndex() throws IOException {
+        return render("personIndex.tat", this.argsIndex);
+    }
+
+    private static byte[] render(final String view, final Object[] args) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        try (final Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            TEMPLATES.render(view, args, out);
+        }
+        return bytes.toByteArray();
+    }
+}
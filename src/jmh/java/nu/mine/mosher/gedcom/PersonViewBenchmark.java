@@ -0,0 +1,84 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.RbacRole;
+import nu.mine.mosher.gedcom.model.*;
+import nu.mine.mosher.template.TemplAtEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares rendering a person page with a new PersonView (PERSON_VIEWS=off)
+ * with rendering it with one already built, and shared (lazy or eager).
+ *
+ * First checks that the modes make no difference to the pages: renders
+ * each person's page (anonymously, and authorized) with views from each
+ * mode, twice, and the shared views also from several threads at once;
+ * fails if any page differs from the one rendered with a new view.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersonViewBenchmark {
+    private static final TemplAtEngine TEMPLATES = new TemplAtEngine(false);
+    private static final List<RbacRole> ROLES = Arrays.asList(new RbacRole(false, false), new RbacRole(true, true));
+
+    private Person person;
+    private PersonView view;
+
+    @Setup
+    public void setUp() throws Exception {
+        final LoadedGedcom loaded = SyntheticGedcom.loaded(2000, 1L);
+        final List<Person> everyone = loaded.personIndex().everyone().stream().filter(p -> p.getUuid() != null).collect(Collectors.toList());
+        final PersonViews off = new PersonViews(everyone, PersonViews.Mode.OFF);
+        final PersonViews lazy = new PersonViews(everyone, PersonViews.Mode.LAZY);
+        final PersonViews eager = new PersonViews(everyone, PersonViews.Mode.EAGER);
+        for (final RbacRole role : ROLES) {
+            final Map<Person, byte[]> expected = new IdentityHashMap<>(everyone.size());
+            everyone.forEach(p -> expected.put(p, render(p, off.get(p), role)));
+            for (final PersonViews views : Arrays.asList(off, lazy, eager, lazy, eager)) {
+                everyone.forEach(p -> check(p, render(p, views.get(p), role), expected));
+            }
+            for (final PersonViews views : Arrays.asList(lazy, eager)) {
+                everyone.parallelStream().forEach(p -> check(p, render(p, views.get(p), role), expected));
+            }
+        }
+
+        this.person = SyntheticGedcom.mostEvents(everyone);
+        this.view = new PersonView(this.person);
+    }
+
+    @Benchmark
+    public byte[] newView() {
+        return render(this.person, new PersonView(this.person), ROLES.get(1));
+    }
+
+    @Benchmark
+    public byte[] sharedView() {
+        return render(this.person, this.view, ROLES.get(1));
+    }
+
+    private static void check(final Person person, final byte[] page, final Map<Person, byte[]> expected) {
+        if (!Arrays.equals(page, expected.get(person))) {
+            throw new IllegalStateException("Page of "+person.getUuid()+" differs, depending on PERSON_VIEWS.");
+        }
+    }
+
+    private static byte[] render(final Person person, final PersonView view, final RbacRole role) {
+        final Object[] args = { person, "synthetic.ged", Collections.emptyList(), view, "../..", role, "client", "" };
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        try (final Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            TEMPLATES.render("person.tat", args, out);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,52 @@
+package nu.mine.mosher.gedcom;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times finding how two people are related, in a (large, generated) GEDCOM
+ * file, for random pairs of people (most of whom are not related at all,
+ * which is the slowest case), with and without remembering ancestries
+ * (once remembered, only one side needs to be searched).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RelationshipBenchmark {
+    private static final int PAIRS = 1024;
+
+    @Param({ "100000", "500000" })
+    public int people;
+
+    @Param({ "false", "true" })
+    public boolean remember;
+
+    private Kinship kinship;
+    private final long[] a = new long[PAIRS];
+    private final long[] b = new long[PAIRS];
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        final FamilyGraph graph = SyntheticGedcom.loaded(this.people, 1L).familyGraph();
+
+        this.kinship = new Kinship(graph, this.remember);
+        final Random random = new Random(1L);
+        for (int i = 0; i < PAIRS; ++i) {
+            this.a[i] = random.nextInt(graph.size());
+            this.b[i] = random.nextInt(graph.size());
+        }
+    }
+
+    @Benchmark
+    public Object relate() {
+        final int i = this.next;
+        this.next = (i + 1) % PAIRS;
+        return this.kinship.relate(this.a[i], this.b[i], true);
+    }
+}
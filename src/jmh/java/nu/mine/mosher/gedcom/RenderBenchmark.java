@@ -0,0 +1,53 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.RbacRole;
+import nu.mine.mosher.gedcom.model.*;
+import nu.mine.mosher.template.TemplAtEngine;
+import org.openjdk.jmh.annotations.*;
+import spark.ModelAndView;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares rendering a person page into a String (then trimming it, then encoding it),
+ * as was done originally, with rendering it straight into UTF-8 bytes.
+ * Run with -Pjmh.profilers=gc to see the allocation per page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+    private static final TemplAtEngine TEMPLATES = new TemplAtEngine(false);
+
+    private Object[] args;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Loader loader = SyntheticGedcom.loaded(2000, 1L).loader();
+        final Person person = SyntheticGedcom.mostEvents(loader.getAllPeople());
+        this.args = new Object[] {
+            person, "synthetic.ged", Collections.emptyList(), new PersonView(person),
+            "../..", new RbacRole(true, true), "client", loader.getCopyright() };
+        TEMPLATES.preload("person.tat");
+    }
+
+    @Benchmark
+    public byte[] viaString() {
+        return TEMPLATES.render(new ModelAndView(this.args, "person.tat")).trim().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] viaWriter() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        try (final Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            TEMPLATES.render("person.tat", this.args, out);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,38 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.RbacRole;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times searches of a (large, generated) GEDCOM file, for a few kinds of
+ * queries: a full word, a short prefix (which matches many words), several
+ * words, and a word with accents typed without them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({ "100000", "500000" })
+    public int people;
+
+    @Param({ "mosher", "m", "john shelton 1850", "muller koln" })
+    public String query;
+
+    private SearchIndex index;
+    private final RbacRole role = new RbacRole(false, false);
+
+    @Setup
+    public void setUp() throws Exception {
+        this.index = SyntheticGedcom.loaded(this.people, 1L).searchIndex();
+    }
+
+    @Benchmark
+    public Object search() {
+        return this.index.search(this.query, this.role, 500);
+    }
+}
@@ -0,0 +1,236 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.model.Person;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Generates a (deterministic, for a given seed) GEDCOM file of any number of people,
+ * in a tree of families going down several generations, with events, places, sources,
+ * citations (legacy, TEI, and with URLs), notes, and transcripts (plain and HTML),
+ * for use by the benchmarks.
+ */
+public final class SyntheticGedcom {
+    private static final String[] GIVEN = {
+        "John", "Mary", "William", "Elizabeth", "Thomas", "Sarah", "James", "Ann", "Samuel", "Hannah",
+        "Joseph", "Abigail", "Benjamin", "Lydia", "Daniel", "Ruth", "\u00c9z\u00e9chiel", "Zo\u00eb", "S\u00f8ren", "\u00c5ngela"
+    };
+    private static final String[] SURNAME = {
+        "Smith", "Mosher", "Brown", "Wheeler", "Hale", "Fairbanks", "Lord", "Ogden", "Peck", "Ward",
+        "Dubois", "M\u00fcller", "\u00d8degaard", "\u00d1\u00fa\u00f1ez", "van der Berg", "O'Neil", "MacLeod", "\u017bak", "\u0141ukasz", "\u00d8stby"
+    };
+    private static final String[] PLACE = {
+        "Shelton, Fairfield, Connecticut, USA", "Dartmouth, Bristol, Massachusetts, USA",
+        "New Haven, New Haven, Connecticut, USA", "Montr\u00e9al, Qu\u00e9bec, Canada", "Bergen, Hordaland, Norway",
+        "K\u00f6ln, Nordrhein-Westfalen, Germany", "Providence, Providence, Rhode Island, USA"
+    };
+    private static final String[] MONTH = {
+        "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"
+    };
+    private static final int SOURCES = 50;
+
+    private final Random rnd;
+    private final PrintWriter out;
+    private int nextPerson = 1;
+    private int nextFamily = 1;
+
+    private SyntheticGedcom(final PrintWriter out, final long seed) {
+        this.out = out;
+        this.rnd = new Random(seed);
+    }
+
+    /**
+     * @param path file to write
+     * @param cPerson (approximate) number of people to generate
+     * @param seed random seed
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(final Path path, final int cPerson, final long seed) throws IOException {
+        try (final PrintWriter out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            new SyntheticGedcom(out, seed).generate(cPerson);
+        }
+    }
+
+    /**
+     * Writes a file of generated people, named synthetic.ged, in the given directory.
+     * @param dir directory to write the file in
+     * @param cPerson (approximate) number of people to generate
+     * @param seed random seed
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    public static File writeIn(final Path dir, final int cPerson, final long seed) throws IOException {
+        final File file = dir.resolve("synthetic.ged").toFile();
+        write(file.toPath(), cPerson, seed);
+        return file;
+    }
+
+    /**
+     * Generates people, and loads them (as the server would, but without snapshots),
+     * from a temporary file (which is deleted again).
+     * @param cPerson (approximate) number of people to generate
+     * @param seed random seed
+     * @return the loaded file
+     * @throws Exception if the file cannot be written or loaded
+     */
+    static LoadedGedcom loaded(final int cPerson, final long seed) throws Exception {
+        final Path dir = Files.createTempDirectory("gedcom-bench");
+        final File file = writeIn(dir, cPerson, seed);
+        try {
+            return new GedcomFilesHandler(new GedcomSnapshotStore(null)).load(file);
+        } finally {
+            Files.delete(file.toPath());
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * @param people some people
+     * @return the person with the most events (the most work to show)
+     */
+    public static Person mostEvents(final Collection<Person> people) {
+        return Collections.max(people, Comparator.comparingInt(p -> p.getEvents().size()));
+    }
+
+    /**
+     * @param count number of names to generate
+     * @param seed random seed
+     * @return names, in "Surname, Given" form (as Person.getNameSortedDisplay gives)
+     */
+    public static List<String> names(final int count, final long seed) {
+        final Random rnd = new Random(seed);
+        final List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            names.add(SURNAME[rnd.nextInt(SURNAME.length)] + ", " + GIVEN[rnd.nextInt(GIVEN.length)] + " " + GIVEN[rnd.nextInt(GIVEN.length)]);
+        }
+        return names;
+    }
+
+    /**
+     * @return a few representative citation page strings (legacy, URL, TEI)
+     */
+    public static List<String> samplePages() {
+        return Arrays.asList(
+            "Page: 12; Family History Library Film 1234567.",
+            "\"Town Records,\" see http://www.example.com/records?id=42 and www.example.org/page.",
+            "<bibl><author>Town Clerk</author>, <title level=\"u\">Births, Marriages, and Deaths</title>, " +
+                "<biblScope unit=\"page\">33</biblScope>.</bibl>");
+    }
+
+    private void generate(final int cPerson) {
+        head();
+        for (int s = 1; s <= SOURCES; ++s) {
+            source(s);
+        }
+
+        /* breadth-first: each family's children marry new spouses, forming new families */
+        final Deque<int[]> families = new ArrayDeque<>();
+        final int founderHusband = this.nextPerson++;
+        final int founderWife = this.nextPerson++;
+        families.add(new int[] { this.nextFamily++, founderHusband, founderWife, 0, 1700 });
+        person(founderHusband, true, 1700, 0, this.nextFamily - 1);
+        person(founderWife, false, 1702, 0, this.nextFamily - 1);
+
+        while (!families.isEmpty()) {
+            final int[] fam = families.removeFirst();
+            final int year = fam[4] + 25;
+            final int cChild = this.nextPerson < cPerson ? 1 + this.rnd.nextInt(4) : 0;
+            final List<Integer> children = new ArrayList<>(cChild);
+            for (int c = 0; c < cChild; ++c) {
+                final int child = this.nextPerson++;
+                children.add(child);
+                final boolean male = this.rnd.nextBoolean();
+                final boolean marries = this.nextPerson < cPerson && this.rnd.nextInt(5) != 0;
+                final int famChild = marries ? this.nextFamily++ : 0;
+                person(child, male, year + c * 2, fam[0], famChild);
+                if (marries) {
+                    final int spouse = this.nextPerson++;
+                    person(spouse, !male, year + c * 2 + 1, 0, famChild);
+                    families.add(male ?
+                        new int[] { famChild, child, spouse, 0, year + c * 2 } :
+                        new int[] { famChild, spouse, child, 0, year + c * 2 });
+                }
+            }
+            family(fam[0], fam[1], fam[2], children, year);
+        }
+
+        this.out.println("0 TRLR");
+    }
+
+    private void head() {
+        this.out.println("0 HEAD");
+        this.out.println("1 CHAR UTF-8");
+        this.out.println("1 GEDC");
+        this.out.println("2 VERS 5.5.1");
+        this.out.println("2 FORM LINEAGE-LINKED");
+        this.out.println("1 NOTE Synthetic genealogy, for benchmarks.");
+        this.out.println("1 COPR Copyright \u00a9 nobody; generated test data.");
+    }
+
+    private void source(final int s) {
+        this.out.println("0 @S" + s + "@ SOUR");
+        this.out.println("1 AUTH " + pick(SURNAME) + ", " + pick(GIVEN));
+        this.out.println("1 TITL Web: Vital Records of " + pick(PLACE) + ", Volume " + s);
+        this.out.println("1 PUBL Name: Ancestry.com Operations, Inc.; Location: Provo, UT, USA; Date: 20" + (10 + s % 10) + ";");
+        if (s % 3 == 0) {
+            this.out.println("1 TEXT <p>Transcript of the <i>record</i>:</p><table><tr><td>born</td><td>1800</td></tr></table>");
+        } else if (s % 3 == 1) {
+            this.out.println("1 TEXT He said \"hello\" and left; see https://example.com/source/" + s + " for more.");
+        }
+    }
+
+    private void person(final int id, final boolean male, final int year, final int famc, final int fams) {
+        this.out.println("0 @I" + id + "@ INDI");
+        this.out.println("1 NAME " + pick(GIVEN) + " /" + pick(SURNAME) + "/");
+        this.out.println("1 SEX " + (male ? "M" : "F"));
+        this.out.println("1 _UUID " + new UUID(this.rnd.nextLong(), this.rnd.nextLong()));
+        event("BIRT", year);
+        if (this.rnd.nextInt(3) != 0) {
+            event("RESI", year + 20 + this.rnd.nextInt(20));
+        }
+        if (year < 1920) {
+            event("DEAT", year + 30 + this.rnd.nextInt(50));
+        }
+        if (famc != 0) {
+            this.out.println("1 FAMC @F" + famc + "@");
+        }
+        if (fams != 0) {
+            this.out.println("1 FAMS @F" + fams + "@");
+        }
+    }
+
+    private void family(final int id, final int husband, final int wife, final List<Integer> children, final int year) {
+        this.out.println("0 @F" + id + "@ FAM");
+        this.out.println("1 HUSB @I" + husband + "@");
+        this.out.println("1 WIFE @I" + wife + "@");
+        event("MARR", year - 2);
+        for (final int child : children) {
+            this.out.println("1 CHIL @I" + child + "@");
+        }
+    }
+
+    private void event(final String tag, final int year) {
+        this.out.println("1 " + tag);
+        this.out.println("2 DATE " + (1 + this.rnd.nextInt(28)) + " " + pick(MONTH) + " " + year);
+        this.out.println("2 PLAC " + pick(PLACE));
+        if (this.rnd.nextInt(4) == 0) {
+            this.out.println("2 NOTE Recorded twice, with different spellings.");
+        }
+        final int cCitation = this.rnd.nextInt(3);
+        for (int c = 0; c < cCitation; ++c) {
+            this.out.println("2 SOUR @S" + (1 + this.rnd.nextInt(SOURCES)) + "@");
+            this.out.println("3 PAGE " + pick(samplePages()));
+        }
+    }
+
+    private String pick(final String[] r) {
+        return r[this.rnd.nextInt(r.length)];
+    }
+
+    private String pick(final List<String> r) {
+        return r.get(this.rnd.nextInt(r.size()));
+    }
+}
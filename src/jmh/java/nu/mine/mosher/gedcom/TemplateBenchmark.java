@@ -0,0 +1,74 @@
+package nu.mine.mosher.gedcom;
+
+import net.sourceforge.templat.Templat;
+import nu.mine.mosher.RbacRole;
+import nu.mine.mosher.gedcom.model.*;
+import nu.mine.mosher.template.TemplAtEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares constructing a new Templat for each render of a person page (as
+ * was done originally) with rendering from the one cached instance (as
+ * TemplAtEngine does), to show how much of the work is done once, when the
+ * Templat is constructed, rather than on every render.
+ *
+ * Also renders from the cached instance on several threads at once, checking
+ * each page against one rendered beforehand on a single thread; it fails if
+ * any differ (which would mean a shared Templat is not safe to render from
+ * concurrently).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateBenchmark {
+    private URL url;
+    private Templat cached;
+    private Object[] args;
+    private String expected;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Loader loader = SyntheticGedcom.loaded(2000, 1L).loader();
+        final Person person = SyntheticGedcom.mostEvents(loader.getAllPeople());
+        this.args = new Object[] {
+            person, "synthetic.ged", Collections.emptyList(), new PersonView(person),
+            "../..", new RbacRole(true, true), "client", loader.getCopyright() };
+
+        this.url = TemplAtEngine.class.getResource("person.tat");
+        this.cached = new Templat(this.url);
+        this.expected = render(this.cached);
+    }
+
+    @Benchmark
+    public String newPerRender() throws Exception {
+        return render(new Templat(this.url));
+    }
+
+    @Benchmark
+    public String cached() throws Exception {
+        return render(this.cached);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String cachedConcurrently() throws Exception {
+        final String page = render(this.cached);
+        if (!page.equals(this.expected)) {
+            throw new IllegalStateException("Concurrent render of a shared Templat differs from a single-threaded one.");
+        }
+        return page;
+    }
+
+    private String render(final Templat tat) throws Exception {
+        final StringBuilder sb = new StringBuilder(16 * 1024);
+        tat.render(sb, this.args);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,163 @@
+package nu.mine.mosher.gedcom;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures updating the UUID index for one reloaded file (copying it, then
+ * removing the old version's UUIDs, and adding the new version's), and
+ * looking up a UUID.
+ *
+ * First checks UuidIndex, and LongIntMap, against HashMaps: random rounds
+ * of adding, replacing, and removing files (with file ids up to 70, so the
+ * bitsets are widened in the copies), checking every UUID's files after
+ * each round, and that the index copied from is unchanged; and random puts
+ * into a LongIntMap. Fails if any result differs from the HashMap's.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UuidIndexBenchmark {
+    private static final int FILES = 8;
+
+    @Param({"20000"})
+    private int people;
+
+    private UuidIndex index;
+    private List<UUID> reloaded;
+    private UUID[] lookups;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        checkUuidIndex(new Random(7L));
+        checkLongIntMap(new Random(7L));
+
+        /* each file has its own people, and half of the next file's */
+        final Random random = new Random(1L);
+        final List<List<UUID>> files = new ArrayList<>(FILES);
+        for (int f = 0; f < FILES; ++f) {
+            final List<UUID> uuids = new ArrayList<>(this.people);
+            for (int i = 0; i < this.people; ++i) {
+                uuids.add(new UUID(random.nextLong(), random.nextLong()));
+            }
+            files.add(uuids);
+        }
+        this.index = new UuidIndex(FILES, FILES * this.people);
+        for (int f = 0; f < FILES; ++f) {
+            files.get(f).forEach(this.index.adding(f)::add);
+            files.get((f + 1) % FILES).subList(0, this.people / 2).forEach(this.index.adding(f)::add);
+        }
+        this.reloaded = new ArrayList<>(files.get(0));
+        this.reloaded.addAll(files.get(1).subList(0, this.people / 2));
+
+        this.lookups = new UUID[1024];
+        for (int i = 0; i < this.lookups.length; ++i) {
+            this.lookups[i] = files.get(random.nextInt(FILES)).get(random.nextInt(this.people));
+        }
+    }
+
+    @Benchmark
+    public UuidIndex reloadOneFile() {
+        final UuidIndex copy = this.index.copy(FILES);
+        this.reloaded.forEach(copy.removing(0)::add);
+        this.reloaded.forEach(copy.adding(0)::add);
+        return copy;
+    }
+
+    @Benchmark
+    public long find() {
+        final int i = this.next;
+        this.next = (i + 1) % this.lookups.length;
+        final int slot = this.index.find(this.lookups[i]);
+        return this.index.bits(slot, 0);
+    }
+
+    private static void checkUuidIndex(final Random random) {
+        final List<UUID> pool = new ArrayList<>(3000);
+        for (int i = 0; i < 3000; ++i) {
+            pool.add(new UUID(random.nextInt(50), random.nextLong()));
+        }
+
+        Map<Integer, Set<UUID>> model = new HashMap<>();
+        UuidIndex index = new UuidIndex(3, 16);
+        for (int round = 0; round < 400; ++round) {
+            final int file = random.nextInt(70);
+            final Map<Integer, Set<UUID>> updated = new HashMap<>(model);
+            final UuidIndex copy = index.copy(Math.max(file + 1, 3));
+
+            final Set<UUID> old = updated.remove(file);
+            if (old != null) {
+                old.forEach(copy.removing(file)::add);
+            }
+            if (random.nextInt(4) != 0) {
+                final Set<UUID> uuids = new HashSet<>();
+                final int n = random.nextInt(200);
+                for (int i = 0; i < n; ++i) {
+                    uuids.add(pool.get(random.nextInt(pool.size())));
+                }
+                updated.put(file, uuids);
+                uuids.forEach(copy.adding(file)::add);
+            }
+
+            check(copy, updated, pool, round);
+            check(index, model, pool, round);
+            index = copy;
+            model = updated;
+        }
+    }
+
+    private static void check(final UuidIndex index, final Map<Integer, Set<UUID>> model, final List<UUID> pool, final int round) {
+        final Set<UUID> all = new HashSet<>();
+        model.values().forEach(all::addAll);
+        if (index.size() != all.size()) {
+            throw new IllegalStateException("UuidIndex has "+index.size()+" UUIDs, not "+all.size()+", in round "+round+".");
+        }
+        for (final UUID uuid : pool) {
+            final int slot = index.find(uuid);
+            if (0 <= slot != all.contains(uuid)) {
+                throw new IllegalStateException("UuidIndex finds "+uuid+" wrongly, in round "+round+".");
+            }
+            for (int file = 0; file < 70; ++file) {
+                final boolean expected = model.containsKey(file) && model.get(file).contains(uuid);
+                final boolean actual = 0 <= slot && (file >>> 6) < index.words() && (index.bits(slot, file >>> 6) & (1L << file)) != 0L;
+                if (actual != expected) {
+                    throw new IllegalStateException("UuidIndex has "+uuid+" in file "+file+" wrongly, in round "+round+".");
+                }
+            }
+        }
+    }
+
+    private static void checkLongIntMap(final Random random) {
+        final Map<Long, Integer> model = new HashMap<>();
+        final LongIntMap map = new LongIntMap(4);
+        for (int i = 0; i < 100_000; ++i) {
+            final long key = random.nextInt(1 << 16) | (long)random.nextInt(4) << 32;
+            final int value = random.nextInt();
+            if (random.nextBoolean()) {
+                if (map.putIfAbsent(key, value) != (model.putIfAbsent(key, value) == null)) {
+                    throw new IllegalStateException("LongIntMap.putIfAbsent of "+key+" is wrong.");
+                }
+            } else {
+                map.put(key, value);
+                model.put(key, value);
+            }
+        }
+        if (map.size() != model.size()) {
+            throw new IllegalStateException("LongIntMap has "+map.size()+" keys, not "+model.size()+".");
+        }
+        for (long hi = 0L; hi < 4L; ++hi) {
+            for (long lo = 0L; lo < 1L << 16; ++lo) {
+                final long key = hi << 32 | lo;
+                if (map.contains(key) != model.containsKey(key) || (map.contains(key) && map.get(key) != model.get(key))) {
+                    throw new IllegalStateException("LongIntMap has "+key+" wrongly.");
+                }
+            }
+        }
+    }
+}
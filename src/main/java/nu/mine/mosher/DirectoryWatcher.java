@@ -0,0 +1,101 @@
+package nu.mine.mosher;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static nu.mine.mosher.logging.Jul.log;
+
+/**
+ * Watches one directory (non-recursively) for files being created, modified,
+ * or deleted, and notifies the interested listeners, on a daemon thread.
+ * A listener is called once per changed file per batch of events,
+ * regardless of how many events the file system reported for it.
+ */
+public final class DirectoryWatcher implements Closeable {
+    private static final class Listener {
+        private final Predicate<Path> which;
+        private final Consumer<Path> action;
+
+        private Listener(final Predicate<Path> which, final Consumer<Path> action) {
+            this.which = which;
+            this.action = action;
+        }
+    }
+
+    private final Path dir;
+    private final WatchService watcher;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public DirectoryWatcher(final Path dir) throws IOException {
+        this.dir = dir;
+        this.watcher = dir.getFileSystem().newWatchService();
+        dir.register(this.watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+
+        final Thread thread = new Thread(this::watch, "watch-"+dir.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param which selects the files of interest (by the path, within the watched directory)
+     * @param action called with the path of each changed file (which may no longer exist)
+     */
+    public void onChange(final Predicate<Path> which, final Consumer<Path> action) {
+        this.listeners.add(new Listener(which, action));
+    }
+
+    /**
+     * @param name name of the file of interest, within the watched directory
+     * @param action called when the file changes
+     */
+    public void onChange(final String name, final Runnable action) {
+        onChange(path -> path.getFileName().toString().equals(name), path -> action.run());
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.watcher.close();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                final WatchKey key = this.watcher.take();
+                final Set<Path> changed = new LinkedHashSet<>();
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        log().warning("Missed some file changes in directory: "+this.dir);
+                    } else {
+                        changed.add(this.dir.resolve((Path)event.context()));
+                    }
+                }
+                changed.forEach(this::notifyListeners);
+                if (!key.reset()) {
+                    log().warning("Directory is no longer accessible: "+this.dir);
+                    return;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ClosedWatchServiceException closed) {
+            // normal shutdown
+        }
+    }
+
+    private void notifyListeners(final Path path) {
+        for (final Listener listener : this.listeners) {
+            if (listener.which.test(path)) {
+                try {
+                    listener.action.accept(path);
+                } catch (final Throwable e) {
+                    log().warning("Error handling change to file: "+path);
+                    log().throwing("DirectoryWatcher", "notifyListeners", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package nu.mine.mosher;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.*;
+
+/**
+ * Bounded, thread-safe, least-recently-used cache. The bound is on the
+ * total "weight" of the values (for example, their size in bytes), as
+ * computed by the given weigher. To reduce contention, the cache is split
+ * into independently locked segments, each holding an equal share of the
+ * total weight, so eviction order is LRU within each segment.
+ *
+ * A cache with a maximum weight of zero (or less) is disabled: it never
+ * holds anything, and every lookup is a miss.
+ *
+ * @param <K> key type (must have proper equals and hashCode)
+ * @param <V> value type
+ */
+public final class LruCache<K, V> {
+    private static final int SEGMENTS = 16;
+
+    private final String name;
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final List<Segment<K, V>> segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LruCache(final String name, final long maxWeight, final ToLongFunction<V> weigher) {
+        this.name = name;
+        this.maxWeight = Math.max(0L, maxWeight);
+        this.weigher = weigher;
+        final List<Segment<K, V>> segs = new ArrayList<>(SEGMENTS);
+        for (int i = 0; i < SEGMENTS; ++i) {
+            segs.add(new Segment<>(this.maxWeight / SEGMENTS));
+        }
+        this.segments = Collections.unmodifiableList(segs);
+    }
+
+    public boolean enabled() {
+        return 0L < this.maxWeight;
+    }
+
+    public Optional<V> get(final K key) {
+        final V value = segment(key).get(key);
+        if (value == null) {
+            this.misses.increment();
+        } else {
+            this.hits.increment();
+        }
+        return Optional.ofNullable(value);
+    }
+
+    /**
+     * Gets the cached value for the key, or computes it (outside of any lock)
+     * and caches it. Concurrent misses on the same key may each compute the value.
+     */
+    public V computeIfAbsent(final K key, final Function<? super K, ? extends V> compute) {
+        final Optional<V> cached = get(key);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        final V value = compute.apply(key);
+        put(key, value);
+        return value;
+    }
+
+    public void put(final K key, final V value) {
+        putIf(key, value, () -> true);
+    }
+
+    /**
+     * Caches the value only if the condition is (still) true. The condition is tested
+     * while holding the same lock that invalidateIf takes to remove the key, so a value
+     * computed from data that was replaced (if replacing data makes the condition false,
+     * before invalidating) is either not cached at all, or removed by the invalidation.
+     */
+    public void putIf(final K key, final V value, final BooleanSupplier condition) {
+        if (!enabled() || value == null) {
+            return;
+        }
+        this.evictions.add(segment(key).put(key, value, this.weigher.applyAsLong(value), condition));
+    }
+
+    public void invalidateIf(final Predicate<? super K> which) {
+        this.segments.forEach(s -> s.removeIf(which));
+    }
+
+    public void invalidateAll() {
+        invalidateIf(k -> true);
+    }
+
+    public String name() {
+        return this.name;
+    }
+
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    public long evictions() {
+        return this.evictions.sum();
+    }
+
+    public long weight() {
+        return this.segments.stream().mapToLong(Segment::weight).sum();
+    }
+
+    public long maxWeight() {
+        return this.maxWeight;
+    }
+
+    /**
+     * @return the greatest weight of any one value the cache will hold (a segment's
+     * share of the maximum weight); heavier values are never cached
+     */
+    public long maxValueWeight() {
+        return this.maxWeight / SEGMENTS;
+    }
+
+    public int size() {
+        return this.segments.stream().mapToInt(Segment::size).sum();
+    }
+
+    @Override
+    public String toString() {
+        return this.name + ": size=" + size() + ", weight=" + weight() + "/" + this.maxWeight +
+            ", hits=" + hits() + ", misses=" + misses() + ", evictions=" + evictions();
+    }
+
+    private Segment<K, V> segment(final K key) {
+        final int h = key.hashCode();
+        return this.segments.get((h ^ (h >>> 16)) & (SEGMENTS - 1));
+    }
+
+
+
+    private static final class Segment<K, V> {
+        private static final class Weighed<V> {
+            private final V value;
+            private final long weight;
+
+            private Weighed(final V value, final long weight) {
+                this.value = value;
+                this.weight = weight;
+            }
+        }
+
+        private final long maxWeight;
+        private final LinkedHashMap<K, Weighed<V>> map = new LinkedHashMap<>(64, 0.75f, true);
+        private long weight;
+
+        private Segment(final long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        private synchronized V get(final K key) {
+            final Weighed<V> w = this.map.get(key);
+            return w == null ? null : w.value;
+        }
+
+        /* returns number of entries evicted */
+        private synchronized int put(final K key, final V value, final long weight, final BooleanSupplier condition) {
+            if (this.maxWeight < weight || !condition.getAsBoolean()) {
+                return 0;
+            }
+            final Weighed<V> old = this.map.put(key, new Weighed<>(value, weight));
+            if (old != null) {
+                this.weight -= old.weight;
+            }
+            this.weight += weight;
+
+            int evicted = 0;
+            final Iterator<Weighed<V>> i = this.map.values().iterator();
+            while (this.maxWeight < this.weight && i.hasNext()) {
+                this.weight -= i.next().weight;
+                i.remove();
+                ++evicted;
+            }
+            return evicted;
+        }
+
+        private synchronized void removeIf(final Predicate<? super K> which) {
+            final Iterator<Map.Entry<K, Weighed<V>>> i = this.map.entrySet().iterator();
+            while (i.hasNext()) {
+                final Map.Entry<K, Weighed<V>> entry = i.next();
+                if (which.test(entry.getKey())) {
+                    this.weight -= entry.getValue().weight;
+                    i.remove();
+                }
+            }
+        }
+
+        private synchronized long weight() {
+            return this.weight;
+        }
+
+        private synchronized int size() {
+            return this.map.size();
+        }
+    }
+}
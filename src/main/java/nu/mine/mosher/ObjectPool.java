@@ -0,0 +1,45 @@
+package nu.mine.mosher;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.*;
+
+/**
+ * Pool of objects that are expensive to create, and not thread-safe (or,
+ * like large buffers, worth reusing). Unlike a ThreadLocal, the number of
+ * objects is bounded by how many are in use at once, not by how many
+ * threads there are (which matters with virtual threads, of which there is
+ * one per request). Never blocks: if the pool is empty, a new object is
+ * created; if it is full, a returned object is dropped.
+ *
+ * @param <T> type of pooled object
+ */
+public final class ObjectPool<T> {
+    private final ArrayBlockingQueue<T> idle;
+    private final Supplier<T> create;
+    private final Predicate<T> reset;
+
+    /**
+     * @param max maximum number of idle objects to keep
+     * @param create creates a new object
+     * @param reset prepares a returned object for reuse; returns false if it should be dropped instead
+     */
+    public ObjectPool(final int max, final Supplier<T> create, final Predicate<T> reset) {
+        this.idle = new ArrayBlockingQueue<>(max);
+        this.create = create;
+        this.reset = reset;
+    }
+
+    /**
+     * @return an idle object, or a new one; give it back when done with it
+     */
+    public T take() {
+        final T t = this.idle.poll();
+        return t == null ? this.create.get() : t;
+    }
+
+    public void give(final T t) {
+        if (this.reset.test(t)) {
+            this.idle.offer(t);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package nu.mine.mosher;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.*;
+import java.util.stream.Stream;
+
+import static nu.mine.mosher.logging.Jul.log;
+
+/**
+ * Rules (one per line in a file, as "regex;replacement") for converting
+ * the paths of attachments into URLs. Each rule is applied, in order, to
+ * the result of the previous one (as {@link String#replaceAll} would).
+ * The patterns are compiled once, when the file is read, and the result
+ * for each distinct path is remembered. The file is read into memory,
+ * and must be reloaded (by calling {@link #reload()}) when it changes;
+ * the new rules (and an empty set of remembered results) replace the
+ * old ones in one step.
+ */
+public final class PathReplacements {
+    private static final long MAX_PATHS = 10_000L;
+
+    private static final class Rule {
+        private final Pattern pattern;
+        private final String replacement;
+
+        private Rule(final Pattern pattern, final String replacement) {
+            this.pattern = pattern;
+            this.replacement = replacement;
+        }
+    }
+
+    private static final class Rules {
+        private final List<Rule> rules;
+        private final LruCache<String, String> results = new LruCache<>("paths", MAX_PATHS, s -> 1L);
+
+        private Rules(final List<Rule> rules) {
+            this.rules = rules;
+        }
+
+        private String apply(final String path) {
+            String s = path;
+            int fired = 0;
+            for (final Rule rule : this.rules) {
+                final Matcher matcher = rule.pattern.matcher(s);
+                if (matcher.find()) {
+                    s = matcher.replaceAll(rule.replacement);
+                    ++fired;
+                }
+            }
+            log().finer(fired+" of "+this.rules.size()+" path replacement rule(s) fired for "+path);
+            return s;
+        }
+    }
+
+    private final Path file;
+    private final AtomicReference<Rules> rules = new AtomicReference<>(new Rules(Collections.emptyList()));
+
+    public PathReplacements(final Path file) {
+        this.file = file;
+        reload();
+    }
+
+    /**
+     * Reads the file again, and replaces the current rules.
+     * If the file cannot be read, there will be no rules. Lines that
+     * are not valid rules are ignored.
+     */
+    public void reload() {
+        final List<Rule> list = new ArrayList<>();
+        if (Files.exists(this.file)) {
+            try (final Stream<String> lines = Files.lines(this.file, StandardCharsets.UTF_8)) {
+                lines.filter(line -> !line.isEmpty()).forEach(line -> parse(line).ifPresent(list::add));
+            } catch (final IOException | UncheckedIOException e) {
+                log().throwing("PathReplacements", "reload", e);
+                list.clear();
+            }
+        }
+        this.rules.set(new Rules(Collections.unmodifiableList(list)));
+        log().info("Loaded "+list.size()+" path replacement rule(s) from "+this.file);
+    }
+
+    /**
+     * @param path path of an attachment
+     * @return the path, with all rules applied
+     */
+    public String apply(final String path) {
+        final Rules current = this.rules.get();
+        if (current.rules.isEmpty()) {
+            return path;
+        }
+        return current.results.computeIfAbsent(path, current::apply);
+    }
+
+    private static Optional<Rule> parse(final String line) {
+        final String[] p = line.split(";", 2);
+        if (p.length < 2) {
+            log().warning("Ignoring path replacement rule without a semicolon: "+line);
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new Rule(Pattern.compile(p[0]), p[1]));
+        } catch (final PatternSyntaxException e) {
+            log().warning("Ignoring path replacement rule with an invalid regular expression: "+line);
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package nu.mine.mosher;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static nu.mine.mosher.logging.Jul.log;
+
+/**
+ * Token-bucket rate limits, for each client, and each class of request.
+ * Each class has its own limit: a sustained rate (tokens added per second)
+ * and a burst (maximum tokens); each request takes one token. The state of
+ * each bucket (tokens, and when they were last counted) is packed into one
+ * AtomicLong, and updated by compare-and-set, without locks. Buckets are
+ * kept in striped maps, each holding at most its share of the maximum number
+ * of clients; when one is full, buckets that have been idle long enough to
+ * refill completely (so are the same as new ones) are removed, and if that
+ * is not enough, the whole stripe is forgotten.
+ */
+public final class RateLimiter {
+    private static final int STRIPES = 16;
+    /* tokens are counted in thousandths; the low bits of the state, the time in ms the high bits */
+    private static final long MILLI = 1000L;
+    private static final int TOKEN_BITS = 24;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1L;
+    private static final int MAX_BURST = (int)(TOKEN_MASK / MILLI);
+
+    public static final class Limit {
+        private final double perSecond;
+        private final int burst;
+
+        /**
+         * @param perSecond sustained number of requests allowed per second
+         * @param burst number of requests allowed at once
+         */
+        public Limit(final double perSecond, final int burst) {
+            this.perSecond = perSecond;
+            this.burst = Math.max(1, Math.min(MAX_BURST, burst));
+        }
+
+        @Override
+        public String toString() {
+            return this.perSecond+"/s, burst "+this.burst;
+        }
+
+        private long full() {
+            return this.burst * MILLI;
+        }
+
+        /* thousandths of a token per ms is the same as tokens per second */
+        private long refill(final long millis) {
+            return (long)(millis * this.perSecond);
+        }
+
+        /* ms until the bucket is full again */
+        private long idle() {
+            return (long)Math.ceil(full() / this.perSecond);
+        }
+    }
+
+    private static final class Bucket {
+        private final Limit limit;
+        private final AtomicLong state;
+
+        private Bucket(final Limit limit, final long now) {
+            this.limit = limit;
+            this.state = new AtomicLong(now << TOKEN_BITS | limit.full());
+        }
+
+        /* 0 if a token was taken, otherwise ms until one will be available */
+        private long take(final long now) {
+            while (true) {
+                final long s = this.state.get();
+                final long then = s >>> TOKEN_BITS;
+                final long tokens = Math.min(this.limit.full(), (s & TOKEN_MASK) + this.limit.refill(Math.max(0L, now - then)));
+                if (tokens < MILLI) {
+                    return Math.max(1L, (long)Math.ceil((MILLI - tokens) / this.limit.perSecond));
+                }
+                if (this.state.compareAndSet(s, Math.max(now, then) << TOKEN_BITS | (tokens - MILLI))) {
+                    return 0L;
+                }
+            }
+        }
+
+        private boolean isIdle(final long now) {
+            return this.limit.idle() <= now - (this.state.get() >>> TOKEN_BITS);
+        }
+    }
+
+    private final Map<String, Limit> limits;
+    private final int maxPerStripe;
+    private final List<ConcurrentMap<String, Bucket>> stripes = new ArrayList<>(STRIPES);
+    private final List<AtomicBoolean> sweeping = new ArrayList<>(STRIPES);
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param limits limit for each class of request (requests of other classes are not limited)
+     * @param maxClients maximum number of buckets (clients, times classes) to keep track of
+     */
+    public RateLimiter(final Map<String, Limit> limits, final int maxClients) {
+        this.limits = Collections.unmodifiableMap(new HashMap<>(limits));
+        this.maxPerStripe = Math.max(1, maxClients / STRIPES);
+        for (int i = 0; i < STRIPES; ++i) {
+            this.stripes.add(new ConcurrentHashMap<>());
+            this.sweeping.add(new AtomicBoolean());
+        }
+    }
+
+    /**
+     * Parses limits, given as "class=rate/burst,..." (for example,
+     * "person=2/10,search=0.5/5"). Invalid entries are ignored.
+     *
+     * @param spec limits, or null
+     * @return limit for each class
+     */
+    public static Map<String, Limit> parse(final String spec) {
+        final Map<String, Limit> limits = new TreeMap<>();
+        if (Objects.isNull(spec)) {
+            return limits;
+        }
+        for (final String entry : spec.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            final String[] nameLimit = entry.split("=", 2);
+            final String[] rateBurst = nameLimit.length < 2 ? new String[0] : nameLimit[1].split("/", 2);
+            try {
+                if (rateBurst.length < 2) {
+                    throw new NumberFormatException();
+                }
+                final double rate = Double.parseDouble(rateBurst[0].trim());
+                if (!(0.0 < rate)) {
+                    throw new NumberFormatException();
+                }
+                limits.put(nameLimit[0].trim(), new Limit(rate, Integer.parseInt(rateBurst[1].trim())));
+            } catch (final NumberFormatException e) {
+                log().warning("Ignoring rate limit that is not class=rate/burst: "+entry);
+            }
+        }
+        return limits;
+    }
+
+    public boolean isEnabled() {
+        return !this.limits.isEmpty();
+    }
+
+    public boolean limits(final String requestClass) {
+        return this.limits.containsKey(requestClass);
+    }
+
+    public Set<String> requestClasses() {
+        return this.limits.keySet();
+    }
+
+    /**
+     * Takes a token for a request.
+     *
+     * @param requestClass class of the request
+     * @param client who sent it (for example, their IP address)
+     * @return 0 if the request is allowed, otherwise the number of ms until it would be
+     */
+    public long acquire(final String requestClass, final String client) {
+        final Limit limit = this.limits.get(requestClass);
+        if (Objects.isNull(limit)) {
+            return 0L;
+        }
+        final long now = (System.nanoTime() - this.origin) / 1_000_000L;
+        final String key = requestClass + ' ' + client;
+        final int i = (key.hashCode() & Integer.MAX_VALUE) % STRIPES;
+        final ConcurrentMap<String, Bucket> stripe = this.stripes.get(i);
+        Bucket bucket = stripe.get(key);
+        if (Objects.isNull(bucket)) {
+            if (this.maxPerStripe <= stripe.size()) {
+                sweep(i, now);
+            }
+            bucket = stripe.computeIfAbsent(key, k -> new Bucket(limit, now));
+        }
+        return bucket.take(now);
+    }
+
+    /**
+     * @return number of buckets being kept track of
+     */
+    public int size() {
+        return this.stripes.stream().mapToInt(Map::size).sum();
+    }
+
+    private void sweep(final int i, final long now) {
+        final AtomicBoolean busy = this.sweeping.get(i);
+        if (!busy.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final ConcurrentMap<String, Bucket> stripe = this.stripes.get(i);
+            stripe.values().removeIf(bucket -> bucket.isIdle(now));
+            if (this.maxPerStripe <= stripe.size()) {
+                log().fine("Too many clients are being rate limited; forgetting "+stripe.size()+" of them.");
+                stripe.clear();
+            }
+        } finally {
+            busy.set(false);
+        }
+    }
+}
@@ -1,12 +1,31 @@
 package nu.mine.mosher;
 
+import java.util.Optional;
+
 public class RbacRole {
+    public enum Variant {
+        ANONYMOUS,
+        SIGNED_IN,
+        AUTHORIZED
+    }
+
     private final boolean signedIn;
     private final boolean authorized;
+    private final String email;
 
     public RbacRole(final boolean signedIn, final boolean authorized) {
+        this(signedIn, authorized, null);
+    }
+
+    /**
+     * @param signedIn whether the user has signed in
+     * @param authorized whether the user may see private information
+     * @param email (verified) email address of the signed-in user, or null if not known
+     */
+    public RbacRole(final boolean signedIn, final boolean authorized, final String email) {
         this.signedIn = signedIn;
         this.authorized = authorized;
+        this.email = email;
         if (this.authorized && !this.signedIn) {
             throw new IllegalStateException();
         }
@@ -19,4 +38,18 @@ public class RbacRole {
     public boolean authorized() {
         return this.authorized;
     }
+
+    public Optional<String> email() {
+        return Optional.ofNullable(this.email);
+    }
+
+    public Variant variant() {
+        if (this.authorized) {
+            return Variant.AUTHORIZED;
+        }
+        if (this.signedIn) {
+            return Variant.SIGNED_IN;
+        }
+        return Variant.ANONYMOUS;
+    }
 }
@@ -3,6 +3,7 @@ package nu.mine.mosher;
 import nu.mine.mosher.collection.NoteList;
 import nu.mine.mosher.gedcom.model.*;
 import nu.mine.mosher.gedcom.model.Source;
+import nu.mine.mosher.metrics.Histogram;
 import nu.mine.mosher.xml.TeiToXhtml5;
 import org.w3c.dom.*;
 import org.xml.sax.*;
@@ -14,27 +15,26 @@ import javax.xml.transform.stream.*;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.security.*;
 import java.text.Collator;
 import java.util.*;
 import java.util.regex.*;
-import java.util.stream.Collectors;
 
 import static nu.mine.mosher.gedcom.GedcomTag.*;
+import static nu.mine.mosher.logging.Jul.log;
 
 @SuppressWarnings({ "unused", "WeakerAccess" }) /* Many of these methods are used only in templates */
 public final class Util {
-    private static final List<PathReplacement> pathReplacements = readPathReplacements();
+    /* rules for converting attachment paths to URLs, in the gedcom directory */
+    public static final String PATH_REPLACEMENTS_FILE_NAME = "REGEX_PATH_TO_URL";
 
-    private static List<PathReplacement> readPathReplacements() {
-        try {
-            return
-                Files.lines(Paths.get("gedcom/REGEX_PATH_TO_URL")).
-                map(PathReplacement::parse).
-                collect(Collectors.toUnmodifiableList());
-        } catch (final Exception e) {
-            e.printStackTrace();
-        }
-        return new ArrayList<>();
+    private static final PathReplacements pathReplacements = new PathReplacements(Paths.get("gedcom", PATH_REPLACEMENTS_FILE_NAME));
+
+    /**
+     * Reads the path replacement rules again (after the file has changed).
+     */
+    public static void reloadPathReplacements() {
+        pathReplacements.reload();
     }
 
     private Util() {
@@ -43,12 +43,37 @@ public final class Util {
 
 
 
+    /*
+     * Escapes the four characters that are special in XML text or attributes,
+     * in one pass. Returns the given string itself if there is nothing to escape.
+     */
     public static String esc(final String s) {
-        return s
-            .replace("&", "&amp;")
-            .replace("<","&lt;")
-            .replace(">","&gt;")
-            .replace("\"","&quot;");
+        final int len = s.length();
+        int i = 0;
+        while (i < len && !isSpecial(s.charAt(i))) {
+            ++i;
+        }
+        if (i == len) {
+            return s;
+        }
+
+        final StringBuilder sb = new StringBuilder(len + 16);
+        sb.append(s, 0, i);
+        for (; i < len; ++i) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '&': sb.append("&amp;"); break;
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '"': sb.append("&quot;"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isSpecial(final char c) {
+        return c == '&' || c == '<' || c == '>' || c == '"';
     }
 
     public static UUID uuidFromString(final String uuid) {
@@ -59,6 +84,51 @@ public final class Util {
         }
     }
 
+    /**
+     * Reads a whole number from an environment variable. A value that is
+     * not a number is logged, and the default is used instead.
+     *
+     * @param name name of the environment variable
+     * @param defaultValue value to use if the variable is not set (or is not valid)
+     * @return the value
+     */
+    public static long envLong(final String name, final long defaultValue) {
+        final String value = System.getenv(name);
+        if (Objects.isNull(value) || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            log().warning("Ignoring invalid value of environment variable "+name+" (not a whole number): \""+value+"\"; using "+defaultValue+".");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a whole number from an environment variable, as {@link #envLong(String, long)}
+     * does, but also uses the default if it is too large for an int.
+     */
+    public static int envInt(final String name, final int defaultValue) {
+        final long value = envLong(name, defaultValue);
+        if (value < Integer.MIN_VALUE || Integer.MAX_VALUE < value) {
+            log().warning("Ignoring invalid value of environment variable "+name+" (out of range): "+value+"; using "+defaultValue+".");
+            return defaultValue;
+        }
+        return (int)value;
+    }
+
+    /**
+     * @return a new SHA-256 digest (which every JRE is required to support)
+     */
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     private static final Pattern patternName = Pattern.compile("Name: (.*?)(;|$)");
     private static final Pattern patternLocn = Pattern.compile("Location: (.*?)(;|$)");
     private static final Pattern patternDate = Pattern.compile("Date: (.*?)(;|$)");
@@ -110,25 +180,78 @@ public final class Util {
         return s;
     }
 
+    /* time taken styling citations (and their transcripts) for footnotes, by requests, and while loading files */
+    private static final Histogram citationTimes = new Histogram();
+    private static final Histogram loadCitationTimes = new Histogram();
+
+    public static Histogram citationTimes() {
+        return citationTimes;
+    }
+
+    public static Histogram loadCitationTimes() {
+        return loadCitationTimes;
+    }
+
     public static String styleCitation(final Citation cita) {
-        final String page = cita.getPage();
+        return styleCitation(cita, citationTimes);
+    }
+
+    /**
+     * @param cita citation to style
+     * @param times where to record the time taken
+     * @return the citation, as XHTML
+     */
+    public static String styleCitation(final Citation cita, final Histogram times) {
+        final long start = System.nanoTime();
+        try {
+            final String page = cita.getPage();
+
+            /* full, TEI-style, citation */
+            if (looksLikeTei(page)) {
+                return teiStyleOrError(page);
+            }
 
-        /* full, TEI-style, citation */
-        if (looksLikeTei(page)) {
-            return teiStyleOrError(page);
+            /* legacy-style citation */
+            return buildCitation(cita);
+        } finally {
+            times.observeSince(start);
         }
+    }
+
+    /*
+     * Results of transforming TEI to XHTML, keyed by the TEI string. (The keys are
+     * the strings from the model, so they take no memory of their own.) The
+     * same citations are shared by many people, so get transformed many times.
+     */
+    private static final LruCache<String, String> teiCache = new LruCache<>("tei", teiCacheBytes(), s -> 64L + 2L * s.length());
+    private static final Histogram teiTransformTimes = new Histogram();
+
+    private static long teiCacheBytes() {
+        return envLong("TEI_CACHE_MB", 16L) * 1024L * 1024L;
+    }
+
+    public static LruCache<?, ?> teiCache() {
+        return teiCache;
+    }
 
-        /* legacy-style citation */
-        return buildCitation(cita);
+    public static Histogram teiTransformTimes() {
+        return teiTransformTimes;
     }
 
     private static String teiStyleOrError(final String page) {
+        return teiCache.computeIfAbsent(page, Util::teiStyleOrErrorUncached);
+    }
+
+    private static String teiStyleOrErrorUncached(final String page) {
+        final long start = System.nanoTime();
         try {
             return teiStyle(page);
         } catch (final Throwable e) {
             /* invalid XML, so display it raw */
             e.printStackTrace();
             return esc(page);
+        } finally {
+            teiTransformTimes.observeSince(start);
         }
     }
 
@@ -165,23 +288,26 @@ public final class Util {
         return sb.toString();
     }
 
+    /* (these are all plain strings, not regular expressions) */
     private static String filterPage(final String page) {
         return page
             /* Ancestry.com tends to use semi-colons in its citations */
             .replace(';', ',')
-            .replaceAll("Page:", "p.")
-            .replaceAll("Family History Library Film", "FHL microfilm")
-            .replaceAll("Family History Film", "FHL microfilm");
+            .replace("Page:", "p.")
+            .replace("Family History Library Film", "FHL microfilm")
+            .replace("Family History Film", "FHL microfilm");
     }
 
     private static String filterTitle(final String title) {
         return title
             /* remove Web: */
-            .replaceAll("Web: ", "");
+            .replace("Web: ", "");
     }
 
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[.,;:]$");
+
     private static String noPunc(final String s) {
-        return s.replaceFirst("[.,;:]$","");
+        return TRAILING_PUNCTUATION.matcher(s).replaceFirst("");
     }
 
     private static String joinWords(final String a, final String b) {
@@ -194,7 +320,16 @@ public final class Util {
         return a + " " + b;
     }
     public static String styleTranscripts(final Citation citation) {
-        return joinWords(styleTranscript(citation.getExtraText()), styleTranscript(citation.getSource().getText()));
+        return styleTranscripts(citation, citationTimes);
+    }
+
+    public static String styleTranscripts(final Citation citation, final Histogram times) {
+        final long start = System.nanoTime();
+        try {
+            return joinWords(styleTranscript(citation.getExtraText()), styleTranscript(citation.getSource().getText()));
+        } finally {
+            times.observeSince(start);
+        }
     }
 
     public static String styleTranscript(final String s) {
@@ -238,14 +373,35 @@ public final class Util {
         return s.startsWith("<bibl") || s.startsWith("<text") || s.startsWith("<?xml");
     }
 
+    private static final Pattern QUOTED = Pattern.compile("(^|\\W)\"(\\S.*?\\S)\"(\\W|$)");
+    private static final Pattern URL = Pattern.compile("\\b(\\w+?://\\S+?)(\\s|[<>{}\"|\\\\^`\\]]|$)");
+    private static final Pattern WWW = Pattern.compile("([^/.]www\\.[a-zA-Z]\\S*?)(\\s|[<>{}\"|\\\\^`\\]]|$)");
+
+    /*
+     * Curly quotes around quoted text.
+     * (Nothing to do, unless there is at least one quotation mark.)
+     */
     public static String qq(final String s) {
-        return s.replaceAll("(^|\\W)\"(\\S.*?\\S)\"(\\W|$)", "$1\u201c$2\u201d$3");
+        if (s.indexOf('"') < 0) {
+            return s;
+        }
+        return QUOTED.matcher(s).replaceAll("$1\u201c$2\u201d$3");
     }
 
+    /*
+     * Escapes the string, and makes links of any URLs (or www. host names) in it.
+     * (Escaping never adds or removes "://" or "www.", so if the original
+     * string has neither, there is nothing to link.)
+     */
     public static String links(final String s) {
-        return esc(s)
-            .replaceAll("\\b(\\w+?://\\S+?)(\\s|[<>{}\"|\\\\^`\\]]|$)", "<a href=\"$1\">$1</a>$2")
-            .replaceAll("([^/.]www\\.[a-zA-Z]\\S*?)(\\s|[<>{}\"|\\\\^`\\]]|$)", "<a href=\"http://$1\">$1</a>$2");
+        final String escaped = esc(s);
+        final boolean url = s.contains("://");
+        final boolean www = s.contains("www.");
+        if (!url && !www) {
+            return escaped;
+        }
+        final String linked = url ? URL.matcher(escaped).replaceAll("<a href=\"$1\">$1</a>$2") : escaped;
+        return www ? WWW.matcher(linked).replaceAll("<a href=\"http://$1\">$1</a>$2") : linked;
     }
 
     public static String uuid() {
@@ -269,7 +425,7 @@ public final class Util {
         if (e == null || e.getDate() == null || e.getDate().getTabularString().equals("?")) {
             return unk("");
         }
-        return unk(e.getDate().getTabularString().replaceAll("-", "\u2012"));
+        return unk(e.getDate().getTabularString().replace('-', '\u2012'));
     }
 
     private static final Set<String> setPrimaryEventTypes = new HashSet<>();
@@ -371,6 +527,23 @@ public final class Util {
         return collator;
     }
 
+    /**
+     * Computes the sort key for a string, so that sorting by the keys (using {@link #compareSortKeys})
+     * gives the same order as sorting by the strings using the collator, but without normalizing the
+     * strings again on every comparison.
+     *
+     * @param collator collator, as from {@link #createCollator()}
+     * @param s string (null is treated as empty)
+     * @return sort key
+     */
+    public static byte[] sortKey(final Collator collator, final String s) {
+        return collator.getCollationKey(Objects.isNull(s) ? "" : s).toByteArray();
+    }
+
+    public static int compareSortKeys(final byte[] a, final byte[] b) {
+        return Arrays.compareUnsigned(a, b);
+    }
+
 
 
     public static String teiStyle(final String tei) throws SAXException, IOException, TransformerException, ParserConfigurationException {
@@ -400,14 +573,46 @@ public final class Util {
         return xhtml5;
     }
 
+    /*
+     * XML parsers and transformers are not thread-safe, and are expensive to create,
+     * so they are pooled (not kept per thread, as there may be a virtual thread for
+     * each request), and reset when they are given back.
+     */
+    private static final int XML_POOL_SIZE = 4 * Runtime.getRuntime().availableProcessors();
+    private static final ObjectPool<DocumentBuilder> documentBuilders = new ObjectPool<>(XML_POOL_SIZE, () -> {
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        } catch (final ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }, builder -> {
+        builder.reset();
+        return true;
+    });
+    private static final ObjectPool<Transformer> identityTransformers = new ObjectPool<>(XML_POOL_SIZE, () -> {
+        try {
+            return TransformerFactory.newInstance().newTransformer();
+        } catch (final TransformerConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }, transformer -> {
+        transformer.reset();
+        return true;
+    });
+
     /*
         Kludge to remove leading space on citation, and add missing double quotes around unpublished titles.
         this is far from perfect. TODO find a better solution
     */
     private static String filterBibl(final String bibl) throws ParserConfigurationException, IOException, SAXException, TransformerException {
-        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         final InputStream streamXml = new ByteArrayInputStream(bibl.getBytes(StandardCharsets.UTF_8));
-        final Document document = factory.newDocumentBuilder().parse(streamXml);
+        final DocumentBuilder builder = documentBuilders.take();
+        final Document document;
+        try {
+            document = builder.parse(streamXml);
+        } finally {
+            documentBuilders.give(builder);
+        }
 
         final NodeList titles = document.getElementsByTagName("title");
 
@@ -443,10 +648,14 @@ public final class Util {
             }
         }
 
-        final Transformer transformer = TransformerFactory.newInstance().newTransformer();
-        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, Boolean.TRUE.toString());
+        final Transformer transformer = identityTransformers.take();
         final StringWriter out = new StringWriter(1024);
-        transformer.transform(new DOMSource(document), new StreamResult(out));
+        try {
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, Boolean.TRUE.toString());
+            transformer.transform(new DOMSource(document), new StreamResult(out));
+        } finally {
+            identityTransformers.give(transformer);
+        }
 
         return out.toString().replaceFirst("<bibl>\\s+", "<bibl>");
     }
@@ -484,11 +693,8 @@ public final class Util {
         return applyPathReplacements(att.toString());
     }
 
-    private static String applyPathReplacements(String s) {
-        for (final PathReplacement repl : Util.pathReplacements) {
-            s = repl.applyTo(s);
-        }
-        return s;
+    private static String applyPathReplacements(final String s) {
+        return pathReplacements.apply(s);
     }
 
     public static int size(final Collection<?> r) {
@@ -524,19 +730,6 @@ public final class Util {
         return esc(apid.get().getLink().get().toASCIIString());
     }
 
-    public static boolean hasIssue(final Person person) {
-        for (Partnership part : person.getPartnerships()) {
-            if (part.getChildRelations().size() > 0) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    public static boolean hasLineage(final Person person) {
-        return 0 < person.getFathers().size() + person.getMothers().size();
-    }
-
     public static boolean privatize(final Privatizable p, final RbacRole role) {
         if (Objects.isNull(p)) {
             return false;
@@ -589,22 +782,4 @@ public final class Util {
 
         return document.html();
     }
-
-
-
-    private static class PathReplacement {
-        private final String regex;
-        private final String replacement;
-        public static PathReplacement parse(final String s) {
-            final String[] p = s.split(";", 2);
-            return new PathReplacement(p[0],p[1]);
-        }
-        public PathReplacement(String regex, String replacement) {
-            this.regex = regex;
-            this.replacement = replacement;
-        }
-        public String applyTo(final String path) {
-            return path.replaceAll(this.regex, this.replacement);
-        }
-    }
 }
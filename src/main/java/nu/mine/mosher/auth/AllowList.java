@@ -0,0 +1,67 @@
+package nu.mine.mosher.auth;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Predicate;
+import java.util.stream.*;
+
+import static nu.mine.mosher.logging.Jul.log;
+
+/**
+ * Set of email addresses (one per line in a file) of users who are authorized to see private information.
+ * The file is read into memory, and must be reloaded (by calling {@link #reload()}) when it changes.
+ * Addresses are compared case-insensitively.
+ */
+public final class AllowList implements Predicate<String> {
+    private final Path file;
+    private final AtomicReference<Set<String>> emails = new AtomicReference<>(Collections.emptySet());
+    private final AtomicLong reloads = new AtomicLong();
+    private volatile Instant lastReload = Instant.EPOCH;
+
+    public AllowList(final Path file) {
+        this.file = file;
+        reload();
+    }
+
+    /**
+     * Reads the file again, and replaces the current set of addresses.
+     * If the file cannot be read, the set becomes empty.
+     */
+    public void reload() {
+        Set<String> set;
+        try (final Stream<String> lines = Files.lines(this.file, StandardCharsets.UTF_8)) {
+            set = lines.map(AllowList::normalize).filter(s -> !s.isEmpty()).collect(Collectors.toUnmodifiableSet());
+        } catch (final IOException | UncheckedIOException e) {
+            log().throwing("AllowList", "reload", e);
+            set = Collections.emptySet();
+        }
+        this.emails.set(set);
+        final long count = this.reloads.incrementAndGet();
+        this.lastReload = Instant.now();
+        log().info("Loaded "+set.size()+" authorized email address(es) from "+this.file+" (load #"+count+")");
+    }
+
+    @Override
+    public boolean test(final String email) {
+        if (Objects.isNull(email)) {
+            return false;
+        }
+        return this.emails.get().contains(normalize(email));
+    }
+
+    public long reloadCount() {
+        return this.reloads.get();
+    }
+
+    public Instant lastReload() {
+        return this.lastReload;
+    }
+
+    private static String normalize(final String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+}
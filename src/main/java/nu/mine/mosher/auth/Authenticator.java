@@ -0,0 +1,105 @@
+package nu.mine.mosher.auth;
+
+import nu.mine.mosher.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.*;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static nu.mine.mosher.logging.Jul.log;
+
+/**
+ * Determines the role of the user presenting a given ID token.
+ * Roles of successfully verified tokens are remembered (keyed by a hash of
+ * the token) until the token expires, so the cryptographic verification
+ * is done only once per token.
+ */
+public final class Authenticator {
+    private static final RbacRole ANONYMOUS = new RbacRole(false, false);
+    private static final long MAX_TOKENS = 10_000L;
+
+    private static final class Verified {
+        private final RbacRole role;
+        private final Instant expiration;
+
+        private Verified(final RbacRole role, final Instant expiration) {
+            this.role = role;
+            this.expiration = expiration;
+        }
+    }
+
+    private final IdTokenVerifier verifier;
+    private final Predicate<String> emailIsAuthorized;
+    private final Clock clock;
+    private final LruCache<String, Verified> tokens = new LruCache<>("tokens", MAX_TOKENS, v -> 1L);
+
+    /**
+     * @param verifier verifies ID tokens
+     * @param emailIsAuthorized tells if the (verified) email address may see private information
+     */
+    public Authenticator(final IdTokenVerifier verifier, final Predicate<String> emailIsAuthorized) {
+        this(verifier, emailIsAuthorized, Clock.systemUTC());
+    }
+
+    public Authenticator(final IdTokenVerifier verifier, final Predicate<String> emailIsAuthorized, final Clock clock) {
+        this.verifier = verifier;
+        this.emailIsAuthorized = emailIsAuthorized;
+        this.clock = clock;
+    }
+
+    /**
+     * @param idTokenOrNull encoded ID token (may be null or empty)
+     * @return role of the user; anonymous if the token is missing or invalid
+     */
+    public RbacRole authenticate(final String idTokenOrNull) {
+        if (Objects.isNull(idTokenOrNull) || idTokenOrNull.isEmpty()) {
+            return ANONYMOUS;
+        }
+
+        final String key = hash(idTokenOrNull);
+        final Optional<Verified> cached = this.tokens.get(key);
+        if (cached.isPresent()) {
+            if (this.clock.instant().isBefore(cached.get().expiration)) {
+                return cached.get().role;
+            }
+            this.tokens.invalidateIf(key::equals);
+        }
+
+        try {
+            final Optional<VerifiedToken> token = this.verifier.verify(idTokenOrNull);
+            if (!token.isPresent()) {
+                throw new GeneralSecurityException("error");
+            }
+            final String email = token.get().email();
+            if (Objects.isNull(email) || email.equals("error")) {
+                throw new GeneralSecurityException("error");
+            }
+            log().info("authorized: "+email);
+            final RbacRole role = new RbacRole(true, this.emailIsAuthorized.test(email), email);
+            this.tokens.put(key, new Verified(role, token.get().expiration()));
+            return role;
+        } catch (Throwable e) {
+            log().info("authorized: "+e.getMessage());
+            log().throwing("Authenticator", "authenticate", e);
+            return ANONYMOUS;
+        }
+    }
+
+    /**
+     * Forgets all previously verified tokens, for example because
+     * the list of authorized users has changed.
+     */
+    public void forgetAll() {
+        this.tokens.invalidateAll();
+    }
+
+    public LruCache<?, ?> cache() {
+        return this.tokens;
+    }
+
+    private static String hash(final String token) {
+        return Base64.getEncoder().encodeToString(Util.sha256().digest(token.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,47 @@
+package nu.mine.mosher.auth;
+
+import com.google.api.client.googleapis.auth.oauth2.*;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Verifies Google ID tokens. One instance (and so one GoogleIdTokenVerifier,
+ * with its cache of Google's public keys) should be shared by all requests.
+ */
+public final class GoogleIdTokens implements IdTokenVerifier {
+    private final GoogleIdTokenVerifier verifier;
+
+    public static GoogleIdTokens forAudience(final String clientId) {
+        return new GoogleIdTokens(
+            new GoogleIdTokenVerifier.Builder(new NetHttpTransport(), JacksonFactory.getDefaultInstance())
+                .setAudience(Collections.singleton(clientId))
+                .build());
+    }
+
+    /**
+     * @param verifier verifier to use, for example one built with a
+     *                 custom public keys manager (for testing)
+     */
+    public GoogleIdTokens(final GoogleIdTokenVerifier verifier) {
+        this.verifier = verifier;
+    }
+
+    @Override
+    public Optional<VerifiedToken> verify(final String idToken) throws GeneralSecurityException, IOException {
+        final GoogleIdToken idTokenOrNull = this.verifier.verify(idToken);
+        if (Objects.isNull(idTokenOrNull)) {
+            return Optional.empty();
+        }
+        final GoogleIdToken.Payload payload = idTokenOrNull.getPayload();
+        final Long exp = payload.getExpirationTimeSeconds();
+        if (Objects.isNull(exp)) {
+            return Optional.empty();
+        }
+        return Optional.of(new VerifiedToken(payload.getEmail(), Instant.ofEpochSecond(exp)));
+    }
+}
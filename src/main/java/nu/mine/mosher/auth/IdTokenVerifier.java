@@ -0,0 +1,20 @@
+package nu.mine.mosher.auth;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Optional;
+
+/**
+ * Verifies a signed ID token (such as the one Google Sign-In puts in the "idtoken" cookie).
+ * Implementations must be thread-safe.
+ */
+@FunctionalInterface
+public interface IdTokenVerifier {
+    /**
+     * @param idToken encoded token, as received from the client
+     * @return the verified token, or empty if it is not valid
+     * @throws GeneralSecurityException if the token cannot be verified
+     * @throws IOException if the public keys cannot be retrieved
+     */
+    Optional<VerifiedToken> verify(String idToken) throws GeneralSecurityException, IOException;
+}
@@ -0,0 +1,24 @@
+package nu.mine.mosher.auth;
+
+import java.time.Instant;
+
+/**
+ * The parts of a verified ID token that we use.
+ */
+public final class VerifiedToken {
+    private final String email;
+    private final Instant expiration;
+
+    public VerifiedToken(final String email, final Instant expiration) {
+        this.email = email;
+        this.expiration = expiration;
+    }
+
+    public String email() {
+        return this.email;
+    }
+
+    public Instant expiration() {
+        return this.expiration;
+    }
+}
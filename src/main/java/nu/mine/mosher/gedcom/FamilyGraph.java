@@ -0,0 +1,268 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.model.*;
+
+import java.util.*;
+import java.util.function.LongConsumer;
+
+/*
+ * Parents and children of everyone in one gedcom file, as int arrays.
+ * Each person is numbered by their position in the list of everyone
+ * (as sorted by PersonIndex). The parents of person i are
+ * parents[parentsFrom[i]] through parents[parentsFrom[i+1]-1]
+ * (compressed sparse rows), and likewise for children. Relations that
+ * are private (or, for children, in a private partnership) are flagged,
+ * as are private people, so traversals for anonymous users can skip them.
+ * Built once, when the file is loaded, and never changed.
+ */
+final class FamilyGraph implements Kinship.Graph {
+    private final List<Person> people;
+
+    private final int[] parentsFrom;
+    private final int[] parents;
+    private final BitSet parentPrivate;
+    private final int[] childrenFrom;
+    private final int[] children;
+    private final BitSet childPrivate;
+    private final BitSet personPrivate;
+
+    /* UUID to number: the UUID's slot in the index, then the number (-1 if none) by slot */
+    private final UuidIndex uuids;
+    private final int[] idBySlot;
+
+    FamilyGraph(final List<Person> people) {
+        this.people = people;
+        final int n = people.size();
+
+        final Map<Person, Integer> ids = new IdentityHashMap<>(n * 4 / 3 + 1);
+        for (int i = 0; i < n; ++i) {
+            ids.put(people.get(i), i);
+        }
+
+        this.personPrivate = new BitSet(n);
+        final IntList parentList = new IntList(n * 2);
+        this.parentPrivate = new BitSet();
+        this.parentsFrom = new int[n + 1];
+        final IntList childList = new IntList(n * 2);
+        this.childPrivate = new BitSet();
+        this.childrenFrom = new int[n + 1];
+
+        for (int i = 0; i < n; ++i) {
+            final Person person = people.get(i);
+            if (person.isPrivate()) {
+                this.personPrivate.set(i);
+            }
+
+            this.parentsFrom[i] = parentList.size;
+            person.getFathers().forEach(rel -> addEdge(ids.get(rel.getOther()), rel.isPrivate(), parentList, this.parentPrivate));
+            person.getMothers().forEach(rel -> addEdge(ids.get(rel.getOther()), rel.isPrivate(), parentList, this.parentPrivate));
+
+            this.childrenFrom[i] = childList.size;
+            person.getPartnerships().forEach(part -> part.getChildRelations().forEach(rel ->
+                addEdge(ids.get(rel.getOther()), isPrivateChild(part, rel), childList, this.childPrivate)));
+        }
+        this.parentsFrom[n] = parentList.size;
+        this.parents = parentList.toArray();
+        this.childrenFrom[n] = childList.size;
+        this.children = childList.toArray();
+
+        this.uuids = new UuidIndex(1, n);
+        for (final Person person : people) {
+            final UUID uuid = person.getUuid();
+            if (uuid != null) {
+                this.uuids.add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), 0);
+            }
+        }
+        this.idBySlot = new int[this.uuids.slots()];
+        Arrays.fill(this.idBySlot, -1);
+        for (int i = 0; i < n; ++i) {
+            final UUID uuid = people.get(i).getUuid();
+            if (uuid != null) {
+                final int slot = this.uuids.find(uuid);
+                if (this.idBySlot[slot] < 0) {
+                    this.idBySlot[slot] = i;
+                }
+            }
+        }
+    }
+
+    private static void addEdge(final Integer to, final boolean isPrivate, final IntList edges, final BitSet privateEdges) {
+        /* (relations to people who are not in this file are ignored) */
+        if (to != null) {
+            if (isPrivate) {
+                privateEdges.set(edges.size);
+            }
+            edges.add(to);
+        }
+    }
+
+    /* a child relation is private if it, or the partnership it is in, is */
+    private static boolean isPrivateChild(final Partnership part, final PersonRelation rel) {
+        return part.isPrivate() || rel.isPrivate();
+    }
+
+    /* whether a traversal for the user follows a relation (to a parent, or child) */
+    private static boolean visible(final boolean relationPrivate, final boolean otherPrivate, final boolean authorized) {
+        return authorized || (!relationPrivate && !otherPrivate);
+    }
+
+    private static boolean visible(final boolean relationPrivate, final PersonRelation rel, final boolean authorized) {
+        return rel.getOther() != null && visible(relationPrivate, rel.getOther().isPrivate(), authorized);
+    }
+
+    /**
+     * @param person anyone
+     * @param authorized whether the user may see private information
+     * @return whether the user's chart of the person's ancestors would not be empty
+     */
+    static boolean hasParents(final Person person, final boolean authorized) {
+        for (final PersonRelation rel : person.getFathers()) {
+            if (visible(rel.isPrivate(), rel, authorized)) {
+                return true;
+            }
+        }
+        for (final PersonRelation rel : person.getMothers()) {
+            if (visible(rel.isPrivate(), rel, authorized)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param person anyone
+     * @param authorized whether the user may see private information
+     * @return whether the user's chart of the person's descendants would not be empty
+     */
+    static boolean hasChildren(final Person person, final boolean authorized) {
+        for (final Partnership part : person.getPartnerships()) {
+            for (final PersonRelation rel : part.getChildRelations()) {
+                if (visible(isPrivateChild(part, rel), rel, authorized)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return this.people.size();
+    }
+
+    Person person(final int id) {
+        return this.people.get(id);
+    }
+
+    /* (the nodes of this graph, as a Kinship.Graph, are just the numbers of the people) */
+    @Override
+    public Person personOf(final long node) {
+        return this.people.get((int)node);
+    }
+
+    @Override
+    public void forEachParent(final long node, final boolean authorized, final LongConsumer action) {
+        final int id = (int)node;
+        for (int e = this.parentsFrom[id]; e < this.parentsFrom[id + 1]; ++e) {
+            final int parent = this.parents[e];
+            if (visible(this.parentPrivate.get(e), this.personPrivate.get(parent), authorized)) {
+                action.accept(parent);
+            }
+        }
+    }
+
+    /**
+     * @return number of the person with the given UUID, or -1 if there is no such person
+     */
+    int id(final UUID uuid) {
+        final int slot = this.uuids.find(uuid);
+        return slot < 0 ? -1 : this.idBySlot[slot];
+    }
+
+    /**
+     * Ancestors (or descendants) of the given person, breadth-first, up to the
+     * given number of generations away, and no more than the given number of people.
+     * Each person appears once, in the nearest generation they appear in.
+     * Relations and people that are private are skipped, unless the user is authorized.
+     * The traversal uses only growable int arrays (no objects per person).
+     *
+     * @param id the person to start from (who is not included in the result)
+     * @param up true for ancestors, false for descendants
+     * @param depth maximum number of generations
+     * @param authorized whether the user may see private information
+     * @param limit maximum number of people
+     * @return people, by generation
+     */
+    Lineage lineage(final int id, final boolean up, final int depth, final boolean authorized, final int limit) {
+        final int[] from = up ? this.parentsFrom : this.childrenFrom;
+        final int[] to = up ? this.parents : this.children;
+        final BitSet edgePrivate = up ? this.parentPrivate : this.childPrivate;
+
+        final IntList queue = new IntList(64);
+        final IntList generation = new IntList(64);
+        final LongIntMap seen = new LongIntMap(64);
+        queue.add(id);
+        generation.add(0);
+        seen.put(id, 0);
+
+        boolean truncated = false;
+        for (int head = 0; head < queue.size && !truncated; ++head) {
+            final int node = queue.get(head);
+            final int g = generation.get(head);
+            if (g < depth) {
+                for (int e = from[node]; e < from[node + 1]; ++e) {
+                    final int other = to[e];
+                    if (visible(edgePrivate.get(e), this.personPrivate.get(other), authorized) && !seen.contains(other)) {
+                        if (queue.size - 1 == limit) {
+                            truncated = true;
+                            break;
+                        }
+                        seen.put(other, 0);
+                        queue.add(other);
+                        generation.add(g + 1);
+                    }
+                }
+            }
+        }
+
+        final List<Lineage.Generation> generations = new ArrayList<>();
+        for (int i = 1; i < queue.size; ++i) {
+            final int g = generation.get(i);
+            if (generations.size() < g) {
+                generations.add(new Lineage.Generation(g, up));
+            }
+            generations.get(g - 1).add(this.people.get(queue.get(i)));
+        }
+        return new Lineage(this.people.get(id), up, depth, generations, truncated);
+    }
+
+
+
+    /* growable array of ints */
+    static final class IntList {
+        private int[] a;
+        private int size;
+
+        IntList(final int capacity) {
+            this.a = new int[Math.max(4, capacity)];
+        }
+
+        void add(final int i) {
+            if (this.size == this.a.length) {
+                this.a = Arrays.copyOf(this.a, this.size * 2);
+            }
+            this.a[this.size++] = i;
+        }
+
+        int get(final int i) {
+            return this.a[i];
+        }
+
+        int size() {
+            return this.size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(this.a, this.size);
+        }
+    }
+}
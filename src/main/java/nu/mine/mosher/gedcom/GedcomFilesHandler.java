@@ -1,16 +1,17 @@
 package nu.mine.mosher.gedcom;
 
-import nu.mine.mosher.Util;
+import nu.mine.mosher.*;
 import nu.mine.mosher.collection.NoteList;
 import nu.mine.mosher.gedcom.exception.InvalidLevel;
 import nu.mine.mosher.gedcom.model.*;
 
 import java.io.*;
 import java.nio.file.*;
-import java.text.Collator;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.LongConsumer;
 
-import static java.util.Optional.ofNullable;
 import static nu.mine.mosher.logging.Jul.log;
 
 
@@ -24,10 +25,12 @@ public class GedcomFilesHandler {
     public static class GedcomFile {
         private final String name;
         private final String description;
+        private final byte[] sortKey;
 
-        private GedcomFile(String n, String d) {
+        private GedcomFile(String n, String d, byte[] k) {
             name = n;
             description = d == null ? "" : d;
+            sortKey = k;
         }
 
         public String getName() {
@@ -42,89 +45,649 @@ public class GedcomFilesHandler {
 
 
     /* directory to read the gedcom files from */
-    private static final String GEDCOM_DIR_NAME = "gedcom";
+    static final String GEDCOM_DIR_NAME = "gedcom";
 
+    /* how long to wait for the gedcom directory to appear (it may be on a volume that is mounted late) */
+    private static final Duration WAIT_FOR_DIRECTORY = Duration.ofSeconds(30);
 
 
-    private final List<GedcomFile> rFile;
-    private final Map<String, Loader> mapLoader = new TreeMap<>();
-    private final Map<UUID, Loader> mapMasterUuidToLoader = new HashMap<>(1024);
-    private final Map<UUID, Set<Loader>> mapPersonCrossRef = new HashMap<>(32);
 
-    public GedcomFilesHandler() throws IOException, InvalidLevel {
-        final List<GedcomFile> files = new ArrayList<>(32);
-        for (final File fileGedcom : getGedcomFiles()) {
+    /*
+     * Everything loaded from the gedcom files, as of one point in time.
+     * Never modified once published; a new one replaces it instead.
+     */
+    private static final class Snapshot {
+        private final List<GedcomFile> rFile;
+        private final Map<String, LoadedGedcom> mapLoaded;
+        /*
+         * When the set of files (or any of them) last changed. Not just the latest
+         * last-modified time of the files, which would go back when a file is
+         * removed (or not move when an older file is added).
+         */
+        private final long lastModified;
+        /*
+         * When the pages of each file last changed: when it was loaded (its last-modified
+         * time, at first), or when another file with any of the same people was.
+         */
+        private final Map<String, Long> changed;
+        /* loaded files, by file id (as used in uuids); null if the id is not in use */
+        private final LoadedGedcom[] byId;
+        /* which files each UUID appears in */
+        private final UuidIndex uuids;
+        /* everyone in every file, and how they are related */
+        private final MergedGraph merged = new MergedGraph();
+        private final Kinship kinship = new Kinship(this.merged);
+
+        private Snapshot(final List<LoadedGedcom> rLoaded) {
+            this.mapLoaded = new TreeMap<>();
+            this.byId = rLoaded.toArray(new LoadedGedcom[0]);
+            this.uuids = new UuidIndex(this.byId.length, 1024);
+            for (int id = 0; id < this.byId.length; ++id) {
+                this.mapLoaded.put(this.byId[id].name(), this.byId[id]);
+                this.byId[id].loader().appendAllUuids(this.uuids.adding(id));
+            }
+            this.rFile = buildFileList(this.mapLoaded.values());
+            this.lastModified = latest(this.mapLoaded.values());
+            this.changed = new HashMap<>();
+            this.mapLoaded.forEach((name, loaded) -> this.changed.put(name, loaded.lastModified()));
+        }
+
+        /*
+         * Copy of the previous snapshot, with one file replaced, added, or removed
+         * (if loaded is null). A replaced file keeps its id; an added file takes
+         * the first unused id. The result is equivalent to loading all files
+         * again from scratch (except for when pages of files changed).
+         * The given UUIDs are those in the old and new versions of the file.
+         */
+        private Snapshot(final Snapshot prev, final String name, final LoadedGedcom loaded, final Set<UUID> changedUuids) {
+            this.mapLoaded = new TreeMap<>(prev.mapLoaded);
+
+            final LoadedGedcom old = this.mapLoaded.remove(name);
+            final int oldId = Arrays.asList(prev.byId).indexOf(old);
+            int id = oldId;
+            if (id < 0) {
+                id = Arrays.asList(prev.byId).indexOf(null);
+                if (id < 0) {
+                    id = prev.byId.length;
+                }
+            }
+
+            this.byId = Arrays.copyOf(prev.byId, Math.max(prev.byId.length, id + 1));
+            if (0 <= oldId) {
+                this.byId[oldId] = null;
+            }
+            this.uuids = prev.uuids.copy(this.byId.length);
+            if (old != null) {
+                old.loader().appendAllUuids(this.uuids.removing(oldId));
+            }
+            if (loaded != null) {
+                this.mapLoaded.put(name, loaded);
+                this.byId[id] = loaded;
+                loaded.loader().appendAllUuids(this.uuids.adding(id));
+            }
+            this.rFile = buildFileList(this.mapLoaded.values());
+            final long now = System.currentTimeMillis();
+            this.lastModified = Math.max(latest(this.mapLoaded.values()), now);
+
+            /* the file itself, and any other file with any of the same people (whose "see also" links may have changed) */
+            this.changed = new HashMap<>(prev.changed);
+            this.changed.remove(name);
+            if (loaded != null) {
+                this.changed.put(name, Math.max(loaded.lastModified(), now));
+            }
+            final long[] files = new long[this.uuids.words()];
+            for (final UUID uuid : changedUuids) {
+                final int slot = this.uuids.find(uuid);
+                if (0 <= slot) {
+                    for (int w = 0; w < files.length; ++w) {
+                        files[w] |= this.uuids.bits(slot, w);
+                    }
+                }
+            }
+            for (int w = 0; w < files.length; ++w) {
+                for (long word = files[w]; word != 0L; word &= word - 1L) {
+                    final int f = (w << 6) + Long.numberOfTrailingZeros(word);
+                    if (f != id) {
+                        this.changed.merge(this.byId[f].name(), now, Math::max);
+                    }
+                }
+            }
+        }
+
+        private static long latest(final Collection<LoadedGedcom> rLoaded) {
+            return rLoaded.stream().mapToLong(LoadedGedcom::lastModified).max().orElse(0L);
+        }
+
+        private static List<GedcomFile> buildFileList(final Collection<LoadedGedcom> rLoaded) {
+            final List<GedcomFile> files = new ArrayList<>(rLoaded.size());
+            for (final LoadedGedcom loaded : rLoaded) {
+                files.add(new GedcomFile(loaded.name(), loaded.loader().getDescription(), loaded.sortKey()));
+            }
+
+            files.sort((f1, f2) -> Util.compareSortKeys(f1.sortKey, f2.sortKey));
+            return Collections.unmodifiableList(files);
+        }
+
+        /*
+         * The master copy of a person is the one in the first file,
+         * in file name order.
+         */
+        private Optional<Loader> master(final UUID uuid) {
+            final int slot = this.uuids.find(uuid);
+            if (slot < 0) {
+                return Optional.empty();
+            }
+            LoadedGedcom master = null;
+            for (int w = 0; w < this.uuids.words(); ++w) {
+                for (long word = this.uuids.bits(slot, w); word != 0L; word &= word - 1L) {
+                    final LoadedGedcom loaded = this.byId[(w << 6) + Long.numberOfTrailingZeros(word)];
+                    if (master == null || loaded.name().compareTo(master.name()) < 0) {
+                        master = loaded;
+                    }
+                }
+            }
+            return Optional.of(master.loader());
+        }
+
+        /* names of files (other than the given one) the person appears in */
+        private List<String> xrefs(final String gedcomName, final UUID uuid) {
+            final int slot = this.uuids.find(uuid);
+            if (slot < 0) {
+                return Collections.emptyList();
+            }
+            List<String> otherFiles = Collections.emptyList();
+            for (int w = 0; w < this.uuids.words(); ++w) {
+                for (long word = this.uuids.bits(slot, w); word != 0L; word &= word - 1L) {
+                    final String name = this.byId[(w << 6) + Long.numberOfTrailingZeros(word)].name();
+                    if (!name.equals(gedcomName)) {
+                        if (otherFiles.isEmpty()) {
+                            otherFiles = new ArrayList<>(2);
+                        }
+                        otherFiles.add(name);
+                    }
+                }
+            }
+            return otherFiles;
+        }
+
+        /* the person's node in the merged graph, or -1 if they are not in any file */
+        private long node(final UUID uuid) {
+            final int slot = this.uuids.find(uuid);
+            if (slot < 0) {
+                return -1L;
+            }
+            for (int w = 0; w < this.uuids.words(); ++w) {
+                final long word = this.uuids.bits(slot, w);
+                if (word != 0L) {
+                    final int file = (w << 6) + Long.numberOfTrailingZeros(word);
+                    final int id = this.byId[file].familyGraph().id(uuid);
+                    return id < 0 ? -1L : (long)file << 32 | id;
+                }
+            }
+            return -1L;
+        }
+
+        /*
+         * Everyone in every file, as one graph. A person who is in several files
+         * (with the same UUID) is one node: the id of the first file they are in
+         * (in the high 32 bits) and their number in that file's FamilyGraph.
+         * Their parents are their parents in every file they are in.
+         */
+        private final class MergedGraph implements Kinship.Graph {
+            @Override
+            public Person personOf(final long node) {
+                return Snapshot.this.byId[(int)(node >>> 32)].familyGraph().person((int)node);
+            }
+
+            @Override
+            public void forEachParent(final long node, final boolean authorized, final LongConsumer action) {
+                final int file = (int)(node >>> 32);
+                final FamilyGraph graph = Snapshot.this.byId[file].familyGraph();
+                final UUID uuid = graph.person((int)node).getUuid();
+                final int slot = uuid == null ? -1 : Snapshot.this.uuids.find(uuid);
+                if (slot < 0) {
+                    graph.forEachParent((int)node, authorized, parent -> action.accept(canonical(file, (int)parent)));
+                    return;
+                }
+                for (int w = 0; w < Snapshot.this.uuids.words(); ++w) {
+                    for (long word = Snapshot.this.uuids.bits(slot, w); word != 0L; word &= word - 1L) {
+                        final int f = (w << 6) + Long.numberOfTrailingZeros(word);
+                        final FamilyGraph g = Snapshot.this.byId[f].familyGraph();
+                        final int id = g.id(uuid);
+                        if (0 <= id) {
+                            g.forEachParent(id, authorized, parent -> action.accept(canonical(f, (int)parent)));
+                        }
+                    }
+                }
+            }
+
+            private long canonical(final int file, final int id) {
+                final UUID uuid = Snapshot.this.byId[file].familyGraph().person(id).getUuid();
+                final long node = uuid == null ? -1L : Snapshot.this.node(uuid);
+                return node < 0L ? (long)file << 32 | id : node;
+            }
+        }
+
+        private Optional<Loader> loader(final String gedcomName) {
+            return Optional.ofNullable(this.mapLoaded.get(gedcomName)).map(LoadedGedcom::loader);
+        }
+    }
+
+    /**
+     * Notified after a gedcom file has been reloaded (or added, or removed).
+     */
+    @FunctionalInterface
+    public interface ReloadListener {
+        /**
+         * @param gedcomName name of the gedcom file that changed
+         * @param uuids UUIDs in the old and new versions of the file
+         */
+        void reloaded(String gedcomName, Set<UUID> uuids);
+    }
+
+    private enum State {
+        LOADING,
+        READY,
+        FAILED
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+    private volatile State state = State.LOADING;
+    private final Map<String, String> progress = new ConcurrentSkipListMap<>();
+    private final List<ReloadListener> listeners = new CopyOnWriteArrayList<>();
+    private final GedcomSnapshotStore snapshots;
+
+    public GedcomFilesHandler() {
+        this(GedcomSnapshotStore.fromEnvironment());
+    }
+
+    GedcomFilesHandler(final GedcomSnapshotStore snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Finds and loads all the gedcom files. Until this is finished,
+     * this handler will act as if there are no gedcom files.
+     *
+     * @throws IOException if the files cannot be found or read
+     * @throws InvalidLevel if any file is not a valid gedcom file
+     */
+    public void load() throws IOException, InvalidLevel {
+        final List<File> rFileGedcom;
+        try {
+            rFileGedcom = getGedcomFiles();
+        } catch (final Throwable e) {
+            this.state = State.FAILED;
+            throw e;
+        }
+        load(rFileGedcom);
+    }
+
+    /*
+     * Loads the given gedcom files (in that order).
+     */
+    void load(final List<File> rFileGedcom) throws IOException, InvalidLevel {
+        try {
+            rFileGedcom.forEach(f -> this.progress.put(f.getName(), "pending"));
+
+            /* load in parallel, but merge in file order, so the result doesn't depend on timing */
+            this.snapshot = new Snapshot(loadAll(rFileGedcom));
+            log().info("UUID index: "+this.snapshot.uuids);
+            this.state = State.READY;
+        } catch (final Throwable e) {
+            this.state = State.FAILED;
+            throw e;
+        }
+    }
+
+    /**
+     * Loads one gedcom file again (after it was changed, added, or removed),
+     * and replaces it in one step, so callers see either the old or the
+     * new version of the file, never a mixture.
+     * If the new version of the file cannot be loaded, the old version is kept.
+     *
+     * @param path path of the file
+     */
+    public synchronized void reload(final Path path) {
+        if (!isReady()) {
+            /* initial load will pick up the change */
+            return;
+        }
+
+        final File fileGedcom = path.toFile();
+        final String name = fileGedcom.getName();
+        final Snapshot prev = this.snapshot;
+        final LoadedGedcom loaded;
+        if (fileGedcom.isFile() && fileGedcom.canRead()) {
+            try {
+                awaitStable(fileGedcom);
+                loaded = load(fileGedcom);
+            } catch (final Throwable e) {
+                log().warning("Cannot reload GEDCOM file "+name+"; will continue to use the previous version.");
+                log().throwing("GedcomFilesHandler", "reload", e);
+                return;
+            }
+        } else if (prev.mapLoaded.containsKey(name)) {
+            log().info("Removing GEDCOM file: "+name);
+            this.progress.remove(name);
+            loaded = null;
+        } else {
+            return;
+        }
+
+        final Set<UUID> uuids = new HashSet<>(256);
+        prev.loader(name).ifPresent(old -> old.appendAllUuids(uuids));
+        if (loaded != null) {
+            loaded.loader().appendAllUuids(uuids);
+        }
+
+        final long start = System.nanoTime();
+        this.snapshot = new Snapshot(prev, name, loaded, uuids);
+        log().info("Updated cross-references for "+name+" in "+millisSince(start)+" ms; UUID index: "+this.snapshot.uuids);
+        /* the old graphs are no longer used, so neither are the ancestries kept for them */
+        prev.kinship.retire();
+        Optional.ofNullable(prev.mapLoaded.get(name)).ifPresent(old -> old.kinship().retire());
+
+        this.listeners.forEach(listener -> listener.reloaded(name, Collections.unmodifiableSet(uuids)));
+    }
+
+    public void addReloadListener(final ReloadListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * @param path any path
+     * @return true if the path names a gedcom file
+     */
+    public static boolean isGedcomFile(final Path path) {
+        final String name = path.getFileName().toString();
+        return name.endsWith(".ged") || name.endsWith(".GED");
+    }
+
+    /*
+     * Waits until the file has stopped changing (for example, while it is being copied).
+     */
+    private static void awaitStable(final File file) throws InterruptedException {
+        long size = -1L;
+        long lastModified = -1L;
+        for (int i = 0; i < 20 && (size != file.length() || lastModified != file.lastModified()); ++i) {
+            size = file.length();
+            lastModified = file.lastModified();
+            Thread.sleep(250L);
+        }
+    }
+
+    /**
+     * @return true if all gedcom files have been loaded
+     */
+    public boolean isReady() {
+        return this.state == State.READY;
+    }
+
+    /**
+     * @return true unless loading has failed
+     */
+    public boolean isHealthy() {
+        return this.state != State.FAILED;
+    }
+
+    /**
+     * @return loading status of each gedcom file, by file name
+     */
+    public Map<String, String> getLoadProgress() {
+        return Collections.unmodifiableMap(new TreeMap<>(this.progress));
+    }
+
+    private List<LoadedGedcom> loadAll(final List<File> rFileGedcom) throws IOException, InvalidLevel {
+        final int cThreads = Math.max(1, Math.min(rFileGedcom.size(), loadThreads()));
+        log().info("Loading "+rFileGedcom.size()+" GEDCOM file(s) using "+cThreads+" thread(s).");
+        final long start = System.nanoTime();
+
+        final ExecutorService pool = Executors.newFixedThreadPool(cThreads);
+        try {
+            final List<Future<LoadedGedcom>> futures = new ArrayList<>(rFileGedcom.size());
+            for (final File fileGedcom : rFileGedcom) {
+                futures.add(pool.submit(() -> load(fileGedcom)));
+            }
+
+            final List<LoadedGedcom> loaders = new ArrayList<>(futures.size());
+            for (final Future<LoadedGedcom> future : futures) {
+                loaders.add(getLoaded(future));
+            }
+
+            log().info("Loaded all GEDCOM files in "+millisSince(start)+" ms.");
+            return loaders;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static LoadedGedcom getLoaded(final Future<LoadedGedcom> future) throws IOException, InvalidLevel {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading GEDCOM files");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof InvalidLevel) {
+                throw (InvalidLevel)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static int loadThreads() {
+        return Util.envInt("GEDCOM_LOAD_THREADS", Runtime.getRuntime().availableProcessors());
+    }
+
+    LoadedGedcom load(final File fileGedcom) throws IOException, InvalidLevel {
+        final String name = fileGedcom.getName();
+        try {
             log().info("Reading GEDCOM file: "+fileGedcom.getCanonicalPath());
+            this.progress.put(name, "loading");
+            final long start = System.nanoTime();
+            final long lastModified = fileGedcom.lastModified();
+
+            final String hash = this.snapshots.enabled() ? GedcomSnapshotStore.hash(fileGedcom) : "";
+            final Optional<Loader> cached = this.snapshots.read(name, hash);
+            if (cached.isPresent()) {
+                log().info("Loaded GEDCOM file "+name+" from snapshot in "+millisSince(start)+" ms.");
+                this.progress.put(name, "loaded from snapshot in "+millisSince(start)+" ms");
+                return new LoadedGedcom(cached.get(), lastModified);
+            }
+
             final GedcomTree gt = parseGedcom(fileGedcom);
-            final Loader loader = new Loader(gt, fileGedcom.getName());
-            loader.parse();
+            final long parsed = System.nanoTime();
 
-            this.mapLoader.put(loader.getName(), loader);
-            files.add(new GedcomFile(loader.getName(), loader.getDescription()));
+            final Loader loader = new Loader(gt, name);
+            loader.parse();
 
-            buildPersonCrossReferences(loader);
+            log().info("Loaded GEDCOM file "+name+" in "+millisSince(start)+" ms "+
+                "(read: "+TimeUnit.NANOSECONDS.toMillis(parsed-start)+" ms, load: "+millisSince(parsed)+" ms).");
+            this.progress.put(name, "loaded in "+millisSince(start)+" ms");
+            this.snapshots.write(name, hash, loader);
+            return new LoadedGedcom(loader, lastModified);
+        } catch (final Throwable e) {
+            this.progress.put(name, "failed: "+e);
+            throw e;
         }
+    }
 
-        final Collator collator = Util.createCollator();
-        files.sort((f1, f2) -> collator.compare(f1.getName(), f2.getName()));
-        this.rFile = Collections.unmodifiableList(files);
+    private static long millisSince(final long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-startNanos);
     }
 
-    private GedcomTree parseGedcom(final File fileGedcom) throws IOException, InvalidLevel
+    private static GedcomTree parseGedcom(final File fileGedcom) throws IOException, InvalidLevel
     {
-        final GedcomTree gt = Gedcom.readFile(new BufferedInputStream(new FileInputStream(fileGedcom)));
-        new GedcomConcatenator(gt).concatenate();
-        return gt;
+        try (final BufferedInputStream in = new BufferedInputStream(new FileInputStream(fileGedcom))) {
+            final GedcomTree gt = Gedcom.readFile(in);
+            new GedcomConcatenator(gt).concatenate();
+            return gt;
+        }
     }
 
     public Optional<Loader> findLoaderForPerson(final UUID uuidPerson) {
-        if (this.mapMasterUuidToLoader.containsKey(uuidPerson)) {
-            return ofNullable(this.mapMasterUuidToLoader.get(uuidPerson));
-        }
-        return Optional.empty();
+        return this.snapshot.master(uuidPerson);
     }
 
     public List<GedcomFile> getFiles() {
-        return this.rFile;
+        return this.snapshot.rFile;
+    }
+
+    /**
+     * @param gedcomName name of gedcom file
+     * @return when (in epoch milliseconds) the file's pages last changed: the last-modified time of the
+     * file, or the time it, or any other file with any of the same people, was last reloaded, if later;
+     * or 0 if unknown
+     */
+    public long getLastModified(final String gedcomName) {
+        return this.snapshot.changed.getOrDefault(gedcomName, 0L);
+    }
+
+    /**
+     * @return latest last-modified time (in epoch milliseconds) of all loaded files,
+     * or the time any file was last reloaded, added, or removed, if later
+     */
+    public long getLastModified() {
+        return this.snapshot.lastModified;
     }
 
     public String getCopyright(String gedcomName) {
-        final Loader loader = this.mapLoader.get(gedcomName);
-        if (loader == null) {
+        final Optional<Loader> loader = this.snapshot.loader(gedcomName);
+        if (!loader.isPresent()) {
             log().info("Request for non-existent gedcom (all people).");
             return "";
         }
-        return loader.getCopyright();
+        return loader.get().getCopyright();
     }
 
     public List<Person> getAllPeople(final String gedcomName) {
-        final Loader loader = this.mapLoader.get(gedcomName);
-        if (loader == null) {
+        final Optional<Loader> loader = this.snapshot.loader(gedcomName);
+        if (!loader.isPresent()) {
             log().info("Request for non-existent gedcom (all people).");
             return Collections.emptyList();
         }
-        return loader.getAllPeople();
+        return loader.get().getAllPeople();
+    }
+
+    public Optional<PersonIndex> getPersonIndex(final String gedcomName) {
+        final LoadedGedcom loaded = this.snapshot.mapLoaded.get(gedcomName);
+        if (loaded == null) {
+            log().info("Request for non-existent gedcom (person index).");
+            return Optional.empty();
+        }
+        return Optional.of(loaded.personIndex());
+    }
+
+    /**
+     * Searches the names, places, and dates of people, in one file, or in all files.
+     *
+     * @param gedcomName name of gedcom file, or null to search all files
+     * @param query words to search for
+     * @param role role of the user (private people will only be found for authorized users)
+     * @param limit maximum number of people to return
+     * @return matching people, sorted by file, then by name
+     */
+    public List<SearchHit> search(final String gedcomName, final String query, final RbacRole role, final int limit) {
+        final Snapshot snap = this.snapshot;
+        final List<SearchHit> hits = new ArrayList<>();
+        for (final GedcomFile file : snap.rFile) {
+            if (hits.size() < limit && (Objects.isNull(gedcomName) || file.getName().equals(gedcomName))) {
+                final LoadedGedcom loaded = snap.mapLoaded.get(file.getName());
+                loaded.searchIndex().search(query, role, limit - hits.size()).forEach(p -> hits.add(new SearchHit(loaded.name(), p)));
+            }
+        }
+        return hits;
     }
 
     public Optional<Person> getPerson(final String gedcomName, final UUID uuid) {
-        final Loader loader = this.mapLoader.get(gedcomName);
-        if (loader == null) {
+        final Optional<Loader> loader = this.snapshot.loader(gedcomName);
+        if (!loader.isPresent()) {
             log().info("Request for non-existent gedcom (person).");
             return Optional.empty();
         }
-        return Optional.ofNullable(loader.lookUpPerson(uuid));
+        return Optional.ofNullable(loader.get().lookUpPerson(uuid));
     }
 
-    public List<String> getXrefs(final String gedcomName, final UUID uuid) {
-        final List<String> otherFiles = new ArrayList<>();
-        if (this.mapPersonCrossRef.containsKey(uuid)) {
-            for (final Loader gedcom : this.mapPersonCrossRef.get(uuid)) {
-                if (!gedcom.getName().equals(gedcomName)) {
-                    otherFiles.add(gedcom.getName());
-                }
+    /**
+     * @param gedcomName name of gedcom file the person is in
+     * @param person the person
+     * @return everything derived from the person that their page shows
+     */
+    public PersonView getPersonView(final String gedcomName, final Person person) {
+        final LoadedGedcom loaded = this.snapshot.mapLoaded.get(gedcomName);
+        return loaded == null ? new PersonView(person) : loaded.personViews().get(person);
+    }
+
+    /**
+     * @param gedcomName name of gedcom file
+     * @param uuid UUID of the person
+     * @param ancestors true for ancestors, false for descendants
+     * @param depth maximum number of generations
+     * @param role role of the user (private relations and people are left out, unless authorized)
+     * @param limit maximum number of people
+     * @return the person's ancestors (or descendants), or empty if there is no such person
+     */
+    public Optional<Lineage> getLineage(final String gedcomName, final UUID uuid, final boolean ancestors, final int depth, final RbacRole role, final int limit) {
+        final LoadedGedcom loaded = this.snapshot.mapLoaded.get(gedcomName);
+        if (loaded == null || uuid == null) {
+            return Optional.empty();
+        }
+        final FamilyGraph graph = loaded.familyGraph();
+        final int id = graph.id(uuid);
+        if (id < 0 || Util.privatize(graph.person(id), role)) {
+            return Optional.empty();
+        }
+        return Optional.of(graph.lineage(id, ancestors, depth, role.authorized(), limit));
+    }
+
+    /**
+     * @param gedcomName name of gedcom file, or null to relate people across all files
+     * (a person who is in several files is one person, with their parents from every file)
+     * @param a UUID of one person
+     * @param b UUID of the other person
+     * @param role role of the user (private relations and people are left out, unless authorized)
+     * @return how b is related to a, or empty if either of them cannot be found
+     */
+    public Optional<Relationship> getRelationship(final String gedcomName, final UUID a, final UUID b, final RbacRole role) {
+        if (a == null || b == null) {
+            return Optional.empty();
+        }
+        final Snapshot snap = this.snapshot;
+        final Kinship.Graph graph;
+        final Kinship kinship;
+        final long nodeA;
+        final long nodeB;
+        if (Objects.isNull(gedcomName)) {
+            graph = snap.merged;
+            kinship = snap.kinship;
+            nodeA = snap.node(a);
+            nodeB = snap.node(b);
+        } else {
+            final LoadedGedcom loaded = snap.mapLoaded.get(gedcomName);
+            if (loaded == null) {
+                return Optional.empty();
             }
+            graph = loaded.familyGraph();
+            kinship = loaded.kinship();
+            nodeA = loaded.familyGraph().id(a);
+            nodeB = loaded.familyGraph().id(b);
         }
-        return otherFiles;
+        if (nodeA < 0L || nodeB < 0L || Util.privatize(graph.personOf(nodeA), role) || Util.privatize(graph.personOf(nodeB), role)) {
+            return Optional.empty();
+        }
+        return Optional.of(kinship.relate(nodeA, nodeB, role.authorized()));
+    }
+
+    public List<String> getXrefs(final String gedcomName, final UUID uuid) {
+        return this.snapshot.xrefs(gedcomName, uuid);
     }
 
     /**
@@ -136,63 +699,69 @@ public class GedcomFilesHandler {
      */
     private static List<File> getGedcomFiles() throws IOException {
         final Path pathGedcom = Paths.get(GEDCOM_DIR_NAME);
-        int timesChecked = 0;
-        while (!pathGedcom.toFile().exists()) {
-            if (++timesChecked < 10) {
-                log().warning("Cannot find './gedcom' directory. Will try again in 3 seconds...");
-                try {
-                    Thread.sleep(3000);
-                } catch (final InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            } else {
-                throw new IOException("Cannot find directory " + pathGedcom.toFile().getCanonicalPath());
-            }
-        }
-        // wait a little longer, just for good measure
-        try {
-            Thread.sleep(2000);
-        } catch (final InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+        awaitDirectory(pathGedcom, WAIT_FOR_DIRECTORY);
 
-        final File[] rFile = pathGedcom.toFile().listFiles(file -> file.isFile() && file.canRead() && (file.getName().endsWith(".ged") || file.getName().endsWith(".GED")));
+        final File[] rFile = pathGedcom.toFile().listFiles(file -> file.isFile() && file.canRead() && isGedcomFile(file.toPath()));
 
         if (rFile == null || rFile.length == 0) {
             throw new IOException("Cannot find any readable files in " + pathGedcom.toFile().getCanonicalPath());
         }
 
+        /* sort, so files are always merged in the same order */
+        Arrays.sort(rFile, Comparator.comparing(File::getName));
         return Arrays.asList(rFile);
     }
 
-    private void buildPersonCrossReferences(final Loader loader) {
-        final Set<UUID> uuids = new HashSet<>(256);
-        loader.appendAllUuids(uuids);
-        uuids.forEach(uuid -> {
-            if (this.mapMasterUuidToLoader.containsKey(uuid)) {
-                Set<Loader> loaders = this.mapPersonCrossRef.get(uuid);
-                if (loaders == null) {
-                    loaders = new HashSet<>(2);
-                    this.mapPersonCrossRef.put(uuid, loaders);
-
-                    loaders.add(this.mapMasterUuidToLoader.get(uuid));
+    /**
+     * Waits for the given directory to exist (for example, for a volume to be mounted).
+     *
+     * @param dir directory to wait for
+     * @param timeout how long to wait
+     * @throws IOException if the directory still doesn't exist after the timeout
+     */
+    private static void awaitDirectory(final Path dir, final Duration timeout) throws IOException {
+        if (Files.isDirectory(dir)) {
+            return;
+        }
+
+        final Path parent = dir.toAbsolutePath().getParent();
+        log().warning("Cannot find "+dir.toAbsolutePath()+" directory. Will wait up to "+timeout.getSeconds()+" seconds for it...");
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        try (final WatchService watcher = parent.getFileSystem().newWatchService()) {
+            parent.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+            /* check again, in case it was created before we started watching */
+            while (!Files.isDirectory(dir)) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    throw new IOException("Cannot find directory " + dir.toAbsolutePath());
+                }
+                final WatchKey key = watcher.poll(remaining, TimeUnit.NANOSECONDS);
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
                 }
-                loaders.add(loader);
-            } else {
-                this.mapMasterUuidToLoader.put(uuid, loader);
             }
-        });
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for directory " + dir.toAbsolutePath());
+        }
     }
 
+    /*
+     * Notes and citations of the person's events, and their partnerships'
+     * events, in the order the person page shows them.
+     */
     public static NoteList getFootnotesFor(final Person person) {
         final NoteList notes = new NoteList();
-        person.getEvents().forEach(e -> {
-            if (!e.getNote().isEmpty()) {
-                notes.note(e.getNote());
-            }
-            e.getCitations().forEach(notes::note);
-        });
-        person.getPartnerships().forEach(p -> p.getEvents().forEach(e -> e.getCitations().forEach(notes::note)));
+        person.getEventsWithDittoedPlaces().forEach(e -> addFootnotes(e, notes));
+        person.getPartnerships().forEach(p -> p.getEvents().forEach(e -> addFootnotes(e, notes)));
         return notes;
     }
+
+    private static void addFootnotes(final Event event, final NoteList notes) {
+        if (!event.getNote().isEmpty()) {
+            notes.note(event.getNote());
+        }
+        event.getCitations().forEach(notes::note);
+    }
 }
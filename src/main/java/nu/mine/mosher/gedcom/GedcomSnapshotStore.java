@@ -0,0 +1,243 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.Util;
+import nu.mine.mosher.gedcom.model.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import static nu.mine.mosher.logging.Jul.log;
+
+/*
+ * On-disk cache of loaded gedcom files, so an unchanged file doesn't have
+ * to be parsed again at the next start-up. Each snapshot is stored in its
+ * own file, named for the gedcom file, the hash of its contents, and the
+ * version of the model classes, so a changed gedcom file (or an upgraded
+ * gedcom-lib) never matches an old snapshot.
+ *
+ * The snapshot holds the serialized Loader (which has the whole model:
+ * people, partnerships, events, citations, and its UUID index). (The model
+ * classes belong to gedcom-lib, and can only be built by its Loader, so
+ * there is no flatter form to store them in.) Each snapshot is checked, as
+ * it is written, by reading it back and comparing a fingerprint of the
+ * model (everything the pages show) with that of the parsed original. If
+ * the model cannot be serialized, or does not come back the same, that is
+ * logged (once), and snapshots are disabled.
+ *
+ * Enabled by setting the GEDCOM_SNAPSHOT_DIR environment variable to
+ * the (writable) directory to store the snapshots in.
+ */
+final class GedcomSnapshotStore {
+    private static final int FORMAT = 1;
+    private static final String EXT = ".snapshot";
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter("java.**;nu.mine.mosher.**;!*");
+    /* gedcom-lib model classes (that are serialized in a snapshot) */
+    private static final List<Class<?>> MODEL_CLASSES = Arrays.asList(
+        Loader.class, Person.class, Partnership.class, Event.class, PersonRelation.class, Citation.class, Source.class,
+        MultimediaReference.class, AncestryPersona.class);
+    private static final String MODEL = modelVersion();
+
+    private final Path dir;
+    /* false once snapshots turn out not to work (with this version of the model) */
+    private volatile boolean usable = true;
+
+    static GedcomSnapshotStore fromEnvironment() {
+        final String dir = System.getenv("GEDCOM_SNAPSHOT_DIR");
+        if (Objects.isNull(dir) || dir.isEmpty()) {
+            return new GedcomSnapshotStore(null);
+        }
+        return new GedcomSnapshotStore(Paths.get(dir));
+    }
+
+    /*
+     * dir is null to disable the store
+     */
+    GedcomSnapshotStore(final Path dir) {
+        this.dir = dir;
+        if (enabled() && !(Serializable.class.isAssignableFrom(Loader.class))) {
+            disable(Level.INFO, "the GEDCOM model (gedcom-lib's Loader) is not Serializable");
+        }
+    }
+
+    /*
+     * Identifies the version of the model classes: gedcom-lib's version (from its
+     * jar's manifest, if any), and the serialVersionUID of each class (which, unless
+     * the class declares one, changes whenever the class does). Hashed, to be short
+     * enough for a file name.
+     */
+    private static String modelVersion() {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append(Loader.class.getPackage().getImplementationVersion());
+        for (final Class<?> c : MODEL_CLASSES) {
+            final ObjectStreamClass osc = ObjectStreamClass.lookup(c);
+            sb.append(':').append(c.getName()).append('=').append(Objects.isNull(osc) ? "-" : Long.toString(osc.getSerialVersionUID()));
+        }
+        return hex(Util.sha256().digest(sb.toString().getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+    }
+
+    boolean enabled() {
+        return !Objects.isNull(this.dir);
+    }
+
+    /*
+     * Hash of the file's contents, to identify its snapshot.
+     */
+    static String hash(final File fileGedcom) throws IOException {
+        final MessageDigest digest = Util.sha256();
+        try (final InputStream in = new DigestInputStream(new BufferedInputStream(new FileInputStream(fileGedcom)), digest)) {
+            final byte[] buf = new byte[64 * 1024];
+            while (in.read(buf) >= 0) {
+                // just digesting
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static String hex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (final byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    Optional<Loader> read(final String name, final String hash) {
+        if (!enabled() || !this.usable) {
+            return Optional.empty();
+        }
+        final Path path = path(name, hash);
+        if (!Files.isReadable(path)) {
+            return Optional.empty();
+        }
+
+        try (final InputStream in = new BufferedInputStream(Files.newInputStream(path), 64 * 1024)) {
+            return read(in, name, hash);
+        } catch (final Throwable e) {
+            log().warning("Cannot read snapshot "+path+"; will parse the GEDCOM file instead.");
+            log().throwing("GedcomSnapshotStore", "read", e);
+            return Optional.empty();
+        }
+    }
+
+    private static Optional<Loader> read(final InputStream stream, final String name, final String hash) throws IOException, ClassNotFoundException {
+        try (final ObjectInputStream in = new ObjectInputStream(stream)) {
+            in.setObjectInputFilter(FILTER);
+            if (in.readInt() != FORMAT || !in.readUTF().equals(MODEL) || !in.readUTF().equals(name) || !in.readUTF().equals(hash)) {
+                return Optional.empty();
+            }
+            return Optional.of((Loader)in.readObject());
+        }
+    }
+
+    void write(final String name, final String hash, final Loader loader) {
+        if (!enabled() || !this.usable) {
+            return;
+        }
+
+        final Path path = path(name, hash);
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 * 1024);
+            try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeInt(FORMAT);
+                out.writeUTF(MODEL);
+                out.writeUTF(name);
+                out.writeUTF(hash);
+                out.writeObject(loader);
+            }
+
+            final Optional<Loader> copy = read(new ByteArrayInputStream(bytes.toByteArray()), name, hash);
+            if (!copy.isPresent() || !fingerprint(copy.get()).equals(fingerprint(loader))) {
+                disable(Level.WARNING, "a snapshot of "+name+" does not read back the same as the parsed file");
+                return;
+            }
+
+            Files.createDirectories(this.dir);
+            final Path temp = Files.createTempFile(this.dir, name, ".tmp");
+            try {
+                Files.write(temp, bytes.toByteArray());
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            deleteStale(name, path);
+            log().info("Wrote snapshot "+path+" ("+bytes.size() / 1024+" KB).");
+        } catch (final NotSerializableException e) {
+            disable(Level.INFO, "the GEDCOM model cannot be serialized ("+e.getMessage()+" is not Serializable)");
+        } catch (final Throwable e) {
+            log().warning("Cannot write snapshot "+path);
+            log().throwing("GedcomSnapshotStore", "write", e);
+        }
+    }
+
+    private void disable(final Level level, final String why) {
+        log().log(level, "GEDCOM_SNAPSHOT_DIR is set, but snapshots are disabled, because "+why+"; GEDCOM files will always be parsed.");
+        this.usable = false;
+    }
+
+    /*
+     * Hash of everything in the model that the pages show (people, and their
+     * names, events, citations, and relations), to check a copy against.
+     */
+    static String fingerprint(final Loader loader) {
+        final MessageDigest digest = Util.sha256();
+        final Consumer<Object> add = o -> digest.update((String.valueOf(o)+'\u0000').getBytes(StandardCharsets.UTF_8));
+        add.accept(loader.getName());
+        add.accept(loader.getDescription());
+        add.accept(loader.getCopyright());
+        for (final Person person : loader.getAllPeople()) {
+            add.accept(person.getUuid());
+            add.accept(person.getNameSortedDisplay());
+            add.accept(person.isPrivate());
+            person.getEvents().forEach(e -> addEvent(e, add));
+            person.getFathers().forEach(r -> addRelation(r, add));
+            person.getMothers().forEach(r -> addRelation(r, add));
+            for (final Partnership part : person.getPartnerships()) {
+                add.accept(part.isPrivate());
+                add.accept(Objects.isNull(part.getPartner()) ? null : part.getPartner().getUuid());
+                part.getEvents().forEach(e -> addEvent(e, add));
+                part.getChildRelations().forEach(r -> addRelation(r, add));
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static void addEvent(final Event event, final Consumer<Object> add) {
+        add.accept(event.getType());
+        add.accept(Util.eventDate(event));
+        add.accept(event.getPlace());
+        add.accept(event.getNote());
+        add.accept(event.isPrivate());
+        for (final Citation cita : event.getCitations()) {
+            add.accept(cita.getPage());
+            add.accept(cita.getExtraText());
+        }
+    }
+
+    private static void addRelation(final PersonRelation rel, final Consumer<Object> add) {
+        add.accept(rel.isPrivate());
+        add.accept(Objects.isNull(rel.getOther()) ? null : rel.getOther().getUuid());
+    }
+
+    private void deleteStale(final String name, final Path current) throws IOException {
+        try (final DirectoryStream<Path> paths = Files.newDirectoryStream(this.dir, glob(name)+".*"+EXT)) {
+            for (final Path path : paths) {
+                if (!path.equals(current)) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private Path path(final String name, final String hash) {
+        return this.dir.resolve(name+"."+hash+"."+MODEL+EXT);
+    }
+
+    private static String glob(final String s) {
+        return s.replaceAll("([*?\\[\\]{}\\\\])", "\\\\$1");
+    }
+}
@@ -1,22 +1,28 @@
 package nu.mine.mosher.gedcom;
 
-import com.google.api.client.googleapis.auth.oauth2.*;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.jackson2.JacksonFactory;
 import nu.mine.mosher.*;
-import nu.mine.mosher.collection.NoteList;
-import nu.mine.mosher.gedcom.exception.InvalidLevel;
+import nu.mine.mosher.auth.*;
 import nu.mine.mosher.gedcom.model.*;
 import nu.mine.mosher.logging.Jul;
+import nu.mine.mosher.metrics.*;
 import spark.*;
 import nu.mine.mosher.template.TemplAtEngine;
-
-import java.io.IOException;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.*;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.security.GeneralSecurityException;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Supplier;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import static javax.servlet.http.HttpServletResponse.*;
 import static nu.mine.mosher.logging.Jul.log;
@@ -31,7 +37,48 @@ public class GedcomWebView {
         return System.getenv("CLIENT_ID");
     }
 
-    private static final NetHttpTransport TRANSPORT = new NetHttpTransport();
+    private static final TemplAtEngine TEMPLATES = new TemplAtEngine();
+
+    /* maximum number of people on each page of the index */
+    private static final int INDEX_PAGE_SIZE = indexPageSize();
+
+    private static int indexPageSize() {
+        return Math.max(1, Util.envInt("INDEX_PAGE_SIZE", 1000));
+    }
+
+    /* maximum number of people listed in search results */
+    private static final int SEARCH_LIMIT = 500;
+
+    /* generations of ancestors (or descendants) shown, by default, and at most */
+    private static final int LINEAGE_DEPTH = 4;
+    private static final int MAX_LINEAGE_DEPTH = 30;
+    /* maximum number of ancestors (or descendants) shown */
+    private static final int MAX_LINEAGE_PEOPLE = 5000;
+
+    /* compress pages for clients that accept it (unless GZIP=false) */
+    private static final boolean GZIP = !"false".equalsIgnoreCase(System.getenv("GZIP"));
+
+    /* run each request on its own virtual thread (needs Java 21 or later), rather than on Jetty's pool of platform threads */
+    private static final boolean VIRTUAL_THREADS = Boolean.parseBoolean(System.getenv("VIRTUAL_THREADS"));
+
+    /* maximum number of (client, request class) pairs whose rate limits are kept track of */
+    private static final int RATE_LIMIT_CLIENTS = rateLimitClients();
+
+    private static int rateLimitClients() {
+        return Math.max(1, Util.envInt("RATE_LIMIT_CLIENTS", 100_000));
+    }
+
+    /* rate limit signed-in users by their email address (instead of their IP address) */
+    private static final boolean RATE_LIMIT_BY_EMAIL = Boolean.parseBoolean(System.getenv("RATE_LIMIT_BY_EMAIL"));
+
+    /* how long clients may use static files (stylesheets and scripts) without checking for changes, in seconds */
+    private static final int ASSET_MAX_AGE = 600;
+
+    /* request attribute: generation of cached pages, as of the start of the request */
+    private static final String GENERATION = "gedcom.generation";
+
+    /* email addresses of users allowed to see private information, in the gedcom directory */
+    private static final String ALLOW_LIST_FILE_NAME = "SERVE_PUBLIC_GED_FILES";
 
     public static void main(final String... args) {
         Jul.setLevel(Level.FINER);
@@ -50,42 +97,307 @@ public class GedcomWebView {
 
 
 
-    private final GedcomFilesHandler files;
+    private static long pageCacheBytes() {
+        return Util.envLong("PAGE_CACHE_MB", 64L) * 1024L * 1024L;
+    }
+
+
 
-    private GedcomWebView() throws IOException, InvalidLevel {
+    private final GedcomFilesHandler files;
+    private final LruCache<PageKey, RenderedPage> pages = new LruCache<>("pages", pageCacheBytes(), RenderedPage::weight);
+    /* incremented each time cached pages are invalidated (after the change that invalidated them has taken effect, and before invalidating) */
+    private final AtomicLong generation = new AtomicLong();
+    /* when the path replacement rules were last loaded (so attachment links on any page may have changed) */
+    private volatile long pathReplacementsLoaded;
+    private final Map<String, RenderedPage> assets = StaticAssets.load("/public", GZIP);
+    private final AllowList allowList = new AllowList(Paths.get(GedcomFilesHandler.GEDCOM_DIR_NAME, ALLOW_LIST_FILE_NAME));
+    private final Authenticator authenticator = new Authenticator(GoogleIdTokens.forAudience(googleClientID()), this::emailIsAuthorized);
+    private volatile DirectoryWatcher watcher;
+    private final RateLimiter rateLimiter = new RateLimiter(RateLimiter.parse(System.getenv("RATE_LIMITS")), RATE_LIMIT_CLIENTS);
+    private final Map<String, LongAdder> throttled = new HashMap<>();
+
+    private final Metrics metrics = new Metrics();
+    private final Histogram timeAuth = phase("auth");
+    private final Histogram timeLookup = phase("lookup");
+    private final Histogram timeView = phase("view");
+    private final Histogram timeRender = phase("render");
+    private final LongAdder notFound = this.metrics.counter("gedcom_not_found_total", "Responses with status 404 Not Found.");
+    private final LongAdder redirects = this.metrics.counter("gedcom_redirects_total", "Responses with a redirect status.");
+
+    private GedcomWebView() {
         this.files = new GedcomFilesHandler();
+        this.metrics.histogram("gedcom_phase_seconds", "Time taken by each phase of handling requests.", Util.citationTimes(), "phase", "citations");
+        this.metrics.histogram("gedcom_load_citations_seconds", "Time taken styling citations while loading files (building person views, with PERSON_VIEWS=eager).", Util.loadCitationTimes());
+        this.metrics.histogram("gedcom_tei_transform_seconds", "Time taken transforming TEI citations to XHTML (cache misses only).", Util.teiTransformTimes());
+        exportCache(this.pages);
+        exportCache(Util.teiCache());
+        exportCache(this.authenticator.cache());
+        exportCache(Kinship.ancestries());
+        this.metrics.counter("gedcom_allow_list_reloads_total", "Times the allow list file has been read.", this.allowList::reloadCount);
+        this.metrics.gauge("gedcom_allow_list_last_reload_seconds", "When the allow list file was last read (epoch seconds).", () -> this.allowList.lastReload().getEpochSecond());
+        for (final String requestClass : this.rateLimiter.requestClasses()) {
+            this.throttled.put(requestClass, this.metrics.counter("gedcom_throttled_total", "Requests refused (429 Too Many Requests) by rate limits, by class of request.", "class", requestClass));
+        }
+        if (this.rateLimiter.isEnabled()) {
+            this.metrics.gauge("gedcom_rate_limit_clients", "Clients (times classes of request) being kept track of for rate limits.", this.rateLimiter::size);
+        }
+    }
+
+    /*
+     * Note that the view phase (building the footnotes, and styling the
+     * citations, for a person page) includes the citations phase, and that
+     * pages served from the cache are not rendered at all.
+     */
+    private Histogram phase(final String phase) {
+        return this.metrics.histogram("gedcom_phase_seconds", "Time taken by each phase of handling requests.", "phase", phase);
+    }
+
+    private void exportCache(final LruCache<?, ?> cache) {
+        final String[] label = { "cache", cache.name() };
+        this.metrics.counter("gedcom_cache_hits_total", "Cache hits.", cache::hits, label);
+        this.metrics.counter("gedcom_cache_misses_total", "Cache misses.", cache::misses, label);
+        this.metrics.counter("gedcom_cache_evictions_total", "Cache entries evicted to stay within the maximum weight.", cache::evictions, label);
+        this.metrics.gauge("gedcom_cache_entries", "Cache entries.", cache::size, label);
+        this.metrics.gauge("gedcom_cache_weight", "Current weight (bytes, or entries) of cache entries.", cache::weight, label);
+        this.metrics.gauge("gedcom_cache_max_weight", "Maximum weight (bytes, or entries) of cache entries.", cache::maxWeight, label);
     }
 
+    /*
+     * Records the time taken by the given route (including sending the response).
+     */
+    private Route timed(final String route, final Route handler) {
+        final Histogram time = this.metrics.histogram("gedcom_request_seconds", "Time taken handling requests, by route.", "route", route);
+        return (req, res) -> {
+            final long start = System.nanoTime();
+            req.attribute(GENERATION, this.generation.get());
+            try {
+                return handler.handle(req, res);
+            } finally {
+                time.observeSince(start);
+            }
+        };
+    }
 
 
+
+    /*
+     * Must be called before any routes are defined (which is when Spark starts Jetty).
+     */
+    private void useVirtualThreads() {
+        final Optional<VirtualThreadPool> pool = VirtualThreadPool.create();
+        if (!pool.isPresent()) {
+            log().warning("VIRTUAL_THREADS needs Java 21 or later; running requests on platform threads instead.");
+            return;
+        }
+        EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, new EmbeddedJettyFactory(new JettyServerFactory() {
+            @Override
+            public Server create(final int maxThreads, final int minThreads, final int threadTimeoutMillis) {
+                return new Server(pool.get());
+            }
+
+            @Override
+            public Server create(final ThreadPool threadPool) {
+                return new Server(threadPool);
+            }
+        }));
+        this.metrics.gauge("gedcom_virtual_threads", "Virtual threads running (requests, and Jetty's own loops).", () -> pool.get().getThreads());
+        log().info("Requests will run on virtual threads.");
+    }
+
     private void run() {
-        staticFiles.location("/public");
-        staticFiles.expireTime(600);
+        if (VIRTUAL_THREADS) {
+            useVirtualThreads();
+        }
+
+        TEMPLATES.preload("index.tat", "personIndex.tat", "person.tat", "search.tat", "lineage.tat", "relationship.tat");
 
+        /* (served from memory, already compressed, rather than by Spark's static files handler) */
+        this.assets.forEach((path, asset) -> get(path, (req, res) -> asset(req, res, path, asset)));
 
+
+        get("/healthz", this::healthz);
+        get("/readyz", this::readyz);
+        get("/metrics", this::metrics);
+        afterAfter(this::countStatus);
+
+        before(this::unlessReady);
+        if (this.rateLimiter.isEnabled()) {
+            before(this::rateLimit);
+        }
         before(this::backwardCompatibility);
 
         redirect.get("", "/");
-        get("/", (req, res) -> index(res));
+        get("/", timed("/", (req, res) -> index(req, res)));
 
         get("/favicon.ico", (req, res) -> null);
 
         path("/persons", () -> {
             redirect.get("", "persons/");
-            get("/:id", (req, res) -> findGedcom(res, Util.uuidFromString(req.params(":id"))));
+            get("/:id", timed("/persons/:id", (req, res) -> findGedcom(res, Util.uuidFromString(req.params(":id")))));
         });
 
+        path("/search", () -> {
+            redirect.get("", "search/");
+            get("/", timed("/search/", (req, res) -> search(req, res, auth(req), null)));
+        });
+
+        get("/relationship", timed("/relationship", (req, res) -> relationship(req, res, auth(req), null)));
+
         path("/:ged", () -> {
             path("/persons", () -> {
                 redirect.get("", "persons/");
-                get("/", (req, res) -> personIndex(res, auth(req), req.params(":ged")));
-                get("/:id", (req, res) -> person(res, auth(req), req.params(":ged"), Util.uuidFromString(req.params(":id"))));
+                get("/", timed("/:ged/persons/", (req, res) -> personIndex(req, res, auth(req), req.params(":ged"))));
+                get("/:id", timed("/:ged/persons/:id", (req, res) -> person(req, res, auth(req), req.params(":ged"), Util.uuidFromString(req.params(":id")))));
+                get("/:id/ancestors", timed("/:ged/persons/:id/ancestors", (req, res) -> lineage(req, res, auth(req), req.params(":ged"), Util.uuidFromString(req.params(":id")), true)));
+                get("/:id/descendants", timed("/:ged/persons/:id/descendants", (req, res) -> lineage(req, res, auth(req), req.params(":ged"), Util.uuidFromString(req.params(":id")), false)));
             });
+            path("/search", () -> {
+                redirect.get("", "search/");
+                get("/", timed("/:ged/search/", (req, res) -> search(req, res, auth(req), req.params(":ged"))));
+            });
+            get("/relationship", timed("/:ged/relationship", (req, res) -> relationship(req, res, auth(req), req.params(":ged"))));
         });
+
+        /* the server is already accepting requests; now load the gedcom files */
+        final Thread loader = new Thread(this::load, "load-gedcom");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private void load() {
+        try {
+            this.files.load();
+            this.watcher = new DirectoryWatcher(Paths.get(GedcomFilesHandler.GEDCOM_DIR_NAME));
+            this.watcher.onChange(ALLOW_LIST_FILE_NAME, this::allowListChanged);
+            this.watcher.onChange(Util.PATH_REPLACEMENTS_FILE_NAME, this::pathReplacementsChanged);
+            this.watcher.onChange(GedcomFilesHandler::isGedcomFile, this.files::reload);
+            this.files.addReloadListener(this::gedcomReloaded);
+            /* the directory may not have existed when we first tried to read these */
+            allowListChanged();
+            pathReplacementsChanged();
+            log().info("Ready.");
+        } catch (final Throwable e) {
+            log().severe("Failed to load GEDCOM files.");
+            Jul.thrown(e);
+        }
+    }
+
+    private void gedcomReloaded(final String gedcomName, final Set<UUID> uuids) {
+        /*
+         * Pages of the changed file, the home page, and any page (in any file)
+         * of a person in the changed file (whose "see also" links may have changed).
+         */
+        this.generation.incrementAndGet();
+        this.pages.invalidateIf(key ->
+            key.gedcomName().equals(gedcomName) ||
+            key.gedcomName().isEmpty() ||
+            (!Objects.isNull(key.uuid()) && uuids.contains(key.uuid())));
+    }
+
+    private String healthz(final Request req, final Response res) {
+        res.type("text/plain; charset=utf-8");
+        if (!this.files.isHealthy()) {
+            res.status(SC_SERVICE_UNAVAILABLE);
+            return "failed\n";
+        }
+        return "ok\n";
+    }
+
+    private String readyz(final Request req, final Response res) {
+        res.type("text/plain; charset=utf-8");
+        final StringBuilder sb = new StringBuilder(256);
+        if (this.files.isReady()) {
+            sb.append("ready\n");
+        } else {
+            res.status(SC_SERVICE_UNAVAILABLE);
+            sb.append(this.files.isHealthy() ? "loading\n" : "failed\n");
+        }
+        this.files.getLoadProgress().forEach((name, status) -> sb.append(name).append(": ").append(status).append('\n'));
+        return sb.toString();
+    }
+
+    private String metrics(final Request req, final Response res) {
+        res.type("text/plain; version=0.0.4; charset=utf-8");
+        return this.metrics.write();
+    }
+
+    private void countStatus(final Request req, final Response res) {
+        final int status = res.raw().getStatus();
+        if (status == SC_NOT_FOUND) {
+            this.notFound.increment();
+        } else if (300 <= status && status < 400 && status != SC_NOT_MODIFIED) {
+            this.redirects.increment();
+        }
+    }
+
+    private void unlessReady(final Request req, final Response res) {
+        if (!this.files.isReady() && !req.pathInfo().equals("/healthz") && !req.pathInfo().equals("/readyz") && !req.pathInfo().equals("/metrics") && !this.assets.containsKey(req.pathInfo())) {
+            res.header("Retry-After", "5");
+            halt(SC_SERVICE_UNAVAILABLE, "The GEDCOM files are still loading; please try again shortly.");
+        }
+    }
+
+    /*
+     * Refuses the request (429 Too Many Requests, with Retry-After) if the client
+     * has used up the rate limit for its class of request. Clients are identified
+     * by IP address, or (if RATE_LIMIT_BY_EMAIL) by email address if signed in.
+     */
+    private void rateLimit(final Request req, final Response res) {
+        final String requestClass = requestClass(req.pathInfo());
+        if (!this.rateLimiter.limits(requestClass)) {
+            return;
+        }
+        String client = req.ip();
+        if (RATE_LIMIT_BY_EMAIL) {
+            final Optional<String> email = auth(req).email();
+            if (email.isPresent()) {
+                client = email.get();
+            }
+        }
+        final long wait = this.rateLimiter.acquire(requestClass, client);
+        if (0L < wait) {
+            this.throttled.get(requestClass).increment();
+            res.header("Retry-After", Long.toString((wait + 999L) / 1000L));
+            halt(429, "Too many requests; please try again later.");
+        }
+    }
+
+    /*
+     * Class of request, for rate limits: "person" (a person page, or their
+     * ancestors or descendants), "index" (the list of files, or of people in
+     * a file), "search" (searches, and relationships), "other" (everything
+     * else, such as stylesheets), or "exempt" (health checks and metrics).
+     */
+    static String requestClass(final String path) {
+        if (path.equals("/healthz") || path.equals("/readyz") || path.equals("/metrics")) {
+            return "exempt";
+        }
+        final String[] p = path.split("/");
+        /* (p[0] is empty, as the path starts with a slash) */
+        if (p.length <= 1) {
+            return "index";
+        }
+        if (p[1].equals("search") || p[1].equals("relationship")) {
+            return "search";
+        }
+        if (p[1].equals("persons")) {
+            return p.length <= 2 ? "index" : "person";
+        }
+        if (2 < p.length) {
+            if (p[2].equals("search") || p[2].equals("relationship")) {
+                return "search";
+            }
+            if (p[2].equals("persons")) {
+                return p.length <= 3 ? "index" : "person";
+            }
+        }
+        return "other";
     }
 
     private String findGedcom(final Response res, final UUID uuid) {
+        final long start = System.nanoTime();
         final Optional<Loader> loader= this.files.findLoaderForPerson(uuid);
+        this.timeLookup.observeSince(start);
         if (loader.isPresent()) {
             res.redirect("../"+loader.get().getName() + "/persons/" + uuid, SC_MOVED_PERMANENTLY);
         } else {
@@ -94,52 +406,39 @@ public class GedcomWebView {
         return "";
     }
 
-    private static RbacRole auth(final Request req) {
+    private RbacRole auth(final Request req) {
+        final long start = System.nanoTime();
         try {
-            final String idStringOrNull = req.cookie("idtoken");
-            if (idStringOrNull == null || idStringOrNull.isEmpty()) {
-                throw new GeneralSecurityException("error");
-            }
-            final GoogleIdToken idTokenOrNull = tokenVerifier().verify(idStringOrNull);
-            if (idTokenOrNull == null) {
-                throw new GeneralSecurityException("error");
-            }
-            final String email = idTokenOrNull.getPayload().getEmail();
-            if (email.equals("error")) {
-                throw new GeneralSecurityException("error");
-            }
-            log().info("authorized: "+email);
-            return new RbacRole(true, emailIsAuthorized(email));
-        } catch (Throwable e) {
-            log().info("authorized: "+e.getMessage());
-            log().throwing("GedcomWebView", "auth", e);
-            return new RbacRole(false, false);
+            return this.authenticator.authenticate(req.cookie("idtoken"));
+        } finally {
+            this.timeAuth.observeSince(start);
         }
     }
 
-    private static GoogleIdTokenVerifier tokenVerifier() {
-        return new GoogleIdTokenVerifier.Builder(TRANSPORT, JacksonFactory.getDefaultInstance()).setAudience(Collections.singleton(googleClientID())).build();
-    }
-
-    private static boolean emailIsAuthorized(final String email) {
+    private boolean emailIsAuthorized(final String email) {
         if (Objects.isNull(email) || email.isEmpty()) {
             return false;
         }
 
-        final boolean authorized = emailIsInFile(email);
+        final boolean authorized = this.allowList.test(email);
         if (authorized) {
             log().warning("Authorizing user: " + email);
         }
         return authorized;
     }
 
-    private static boolean emailIsInFile(String email) {
-        try {
-            return Files.lines(Paths.get("gedcom/SERVE_PUBLIC_GED_FILES")).collect(Collectors.toSet()).contains(email);
-        } catch (final Throwable e) {
-            log().throwing("GedcomWebView", "emailIsInFile", e);
-            return false;
-        }
+    private void allowListChanged() {
+        this.allowList.reload();
+        /* cached roles may have changed */
+        this.authenticator.forgetAll();
+    }
+
+    private void pathReplacementsChanged() {
+        Util.reloadPathReplacements();
+        /* cached pages may have attachment links made by the old rules */
+        this.pathReplacementsLoaded = System.currentTimeMillis();
+        this.generation.incrementAndGet();
+        this.pages.invalidateAll();
     }
 
     private void backwardCompatibility(final Request req, final Response res) {
@@ -172,38 +471,377 @@ public class GedcomWebView {
 
 
 
-    private String index(Response res) {
-        res.type("application/xhtml+xml; charset=utf-8");
-        return render("index.tat", this.files.getFiles(), ".", googleClientID()).trim();
+    private String index(final Request req, final Response res) throws IOException {
+        final PageKey key = new PageKey("", null, RbacRole.Variant.ANONYMOUS);
+        return serve(req, res, key, lastModified(null), null, "index.tat", () ->
+            new Object[] { this.files.getFiles(), ".", googleClientID() });
     }
 
-    private String personIndex(final Response res, final RbacRole auth, final String gedcomName) {
-        final List<Person> people = this.files.getAllPeople(gedcomName);
-        if (people.isEmpty()) {
+    private String personIndex(final Request req, final Response res, final RbacRole auth, final String gedcomName) throws IOException {
+        final long lastModified = lastModified(gedcomName);
+        final long start = System.nanoTime();
+        final Optional<PersonIndex> index = this.files.getPersonIndex(gedcomName);
+        this.timeLookup.observeSince(start);
+        if (!index.isPresent() || index.get().size(auth) == 0) {
             res.status(SC_NOT_FOUND);
             return "";
         }
-        res.type("application/xhtml+xml; charset=utf-8");
-        final String copyright = this.files.getCopyright(gedcomName);
-        return render("personIndex.tat", people, gedcomName, copyright, "../..", auth, googleClientID()).trim();
+
+        final String letter = req.queryParamOrDefault("letter", "");
+        if (!letter.isEmpty()) {
+            final OptionalInt from = index.get().find(auth, letter);
+            res.redirect("./" + (from.isPresent() ? "?from=" + from.getAsInt() : ""), SC_FOUND);
+            return "";
+        }
+
+        final int from = cursor(req.queryParamOrDefault("from", "0"));
+        final PersonIndex.Page page = index.get().page(auth, from, INDEX_PAGE_SIZE);
+        final PageKey key = new PageKey(gedcomName, null, auth.variant(), "from="+page.getFrom());
+        return serve(req, res, key, lastModified, auth, "personIndex.tat", () -> {
+            final String copyright = this.files.getCopyright(gedcomName);
+            return new Object[] { page, gedcomName, copyright, "../..", auth, googleClientID() };
+        });
+    }
+
+    private static int cursor(final String from) {
+        try {
+            return Math.max(0, Integer.parseInt(from));
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
     }
 
-    private String person(final Response res, final RbacRole auth, String gedcomName, final UUID uuid) {
+    private String person(final Request req, final Response res, final RbacRole auth, String gedcomName, final UUID uuid) throws IOException {
+        final long lastModified = lastModified(gedcomName);
+        final long start = System.nanoTime();
         final Optional<Person> person = this.files.getPerson(gedcomName, uuid);
+        this.timeLookup.observeSince(start);
         if (!person.isPresent() || Util.privatize(person.get(), auth)) {
             res.status(SC_NOT_FOUND);
             return "";
         }
+        final PageKey key = new PageKey(gedcomName, uuid, auth.variant());
+        return serve(req, res, key, lastModified, auth, "person.tat", () -> {
+            final List<String> otherFiles = this.files.getXrefs(gedcomName, uuid);
+            final long startView = System.nanoTime();
+            final PersonView view = this.files.getPersonView(gedcomName, person.get());
+            this.timeView.observeSince(startView);
+            final String copyright = this.files.getCopyright(gedcomName);
+            return new Object[] { person.get(), gedcomName, otherFiles, view, "../..", auth, googleClientID(), copyright };
+        });
+    }
+
+
+    /*
+     * Ancestors (or descendants) of a person, as a page, or as JSON (if asked
+     * for with ?format=json, or an Accept header of application/json).
+     */
+    private String lineage(final Request req, final Response res, final RbacRole auth, final String gedcomName, final UUID uuid, final boolean ancestors) throws IOException {
+        final int depth = Math.min(MAX_LINEAGE_DEPTH, Math.max(1, cursor(req.queryParamOrDefault("depth", Integer.toString(LINEAGE_DEPTH)))));
+        final long lastModified = lastModified(gedcomName);
+        final long start = System.nanoTime();
+        final Optional<Lineage> lineage = this.files.getLineage(gedcomName, uuid, ancestors, depth, auth, MAX_LINEAGE_PEOPLE);
+        this.timeLookup.observeSince(start);
+        if (!lineage.isPresent()) {
+            res.status(SC_NOT_FOUND);
+            return "";
+        }
+
+        if (wantsJson(req)) {
+            return serveJson(req, res, lastModified, auth, lineageJson(lineage.get()));
+        }
+        final PageKey key = new PageKey(gedcomName, uuid, auth.variant(), lineage.get().getDirection()+":depth="+depth);
+        return serve(req, res, key, lastModified, auth, "lineage.tat", () ->
+            new Object[] { lineage.get(), gedcomName, "../../..", auth, googleClientID(), this.files.getCopyright(gedcomName) });
+    }
+
+    private static boolean wantsJson(final Request req) {
+        final String accept = req.headers("Accept");
+        return "json".equals(req.queryParams("format")) || (!Objects.isNull(accept) && accept.startsWith("application/json"));
+    }
+
+    private static String lineageJson(final Lineage lineage) {
+        final StringBuilder sb = new StringBuilder(4 * 1024);
+        sb.append("{\"person\":");
+        Json.person(sb, lineage.getPerson());
+        sb.append(",\"direction\":\"").append(lineage.getDirection()).append('"');
+        sb.append(",\"depth\":").append(lineage.getDepth());
+        sb.append(",\"truncated\":").append(lineage.isTruncated());
+        sb.append(",\"generations\":[");
+        for (final Lineage.Generation generation : lineage.getGenerations()) {
+            if (1 < generation.getNumber()) {
+                sb.append(',');
+            }
+            sb.append("{\"generation\":").append(generation.getNumber()).append(",\"people\":[");
+            for (int i = 0; i < generation.getPeople().size(); ++i) {
+                if (0 < i) {
+                    sb.append(',');
+                }
+                Json.person(sb, generation.getPeople().get(i));
+            }
+            sb.append("]}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    /*
+     * How person b is related to person a (?a=uuid&b=uuid), within one file, or
+     * (if gedcomName is null) across all files. Not cached (there are too many
+     * possible pairs of people); served as a page, or as JSON.
+     */
+    private String relationship(final Request req, final Response res, final RbacRole auth, final String gedcomName) throws IOException {
+        final UUID a = Util.uuidFromString(req.queryParamOrDefault("a", ""));
+        final UUID b = Util.uuidFromString(req.queryParamOrDefault("b", ""));
+        final long lastModified = lastModified(gedcomName);
+        final long start = System.nanoTime();
+        final Optional<Relationship> relationship = this.files.getRelationship(gedcomName, a, b, auth);
+        this.timeLookup.observeSince(start);
+        if (!relationship.isPresent()) {
+            res.status(SC_NOT_FOUND);
+            return "";
+        }
+
+        if (wantsJson(req)) {
+            return serveJson(req, res, lastModified, auth, relationshipJson(relationship.get()));
+        }
+        final String root = Objects.isNull(gedcomName) ? "." : "..";
+        final String persons = Objects.isNull(gedcomName) ? root+"/persons" : root+"/"+gedcomName+"/persons";
+        final String copyright = Objects.isNull(gedcomName) ? "" : this.files.getCopyright(gedcomName);
+        return serve(req, res, null, lastModified, auth, "relationship.tat", () ->
+            new Object[] { relationship.get(), persons, gedcomName, root, auth, googleClientID(), copyright });
+    }
+
+    private static String relationshipJson(final Relationship relationship) {
+        final StringBuilder sb = new StringBuilder(1024);
+        sb.append("{\"a\":");
+        Json.person(sb, relationship.getA());
+        sb.append(",\"b\":");
+        Json.person(sb, relationship.getB());
+        sb.append(",\"related\":").append(relationship.isRelated());
+        sb.append(",\"name\":");
+        Json.string(sb, relationship.getName());
+        sb.append(",\"generationsFromA\":").append(relationship.getGenerationsFromA());
+        sb.append(",\"generationsFromB\":").append(relationship.getGenerationsFromB());
+        sb.append(",\"commonAncestors\":[");
+        for (int i = 0; i < relationship.getCommonAncestors().size(); ++i) {
+            if (0 < i) {
+                sb.append(',');
+            }
+            Json.person(sb, relationship.getCommonAncestors().get(i));
+        }
+        return sb.append("]}").toString();
+    }
+
+    /*
+     * Search results are not cached (there are too many possible queries).
+     */
+    private String search(final Request req, final Response res, final RbacRole auth, final String gedcomName) throws IOException {
+        final long lastModified = lastModified(gedcomName);
+        if (!Objects.isNull(gedcomName) && !this.files.getPersonIndex(gedcomName).isPresent()) {
+            res.status(SC_NOT_FOUND);
+            return "";
+        }
+        final String query = req.queryParamOrDefault("q", "").trim();
+        final String root = Objects.isNull(gedcomName) ? ".." : "../..";
+        return serve(req, res, null, lastModified, auth, "search.tat", () ->
+            new Object[] { this.files.search(gedcomName, query, auth, SEARCH_LIMIT), query, gedcomName, root, auth, googleClientID() });
+    }
+
+
+
+    /*
+     * When pages of the given file (or, if null, of all files) last changed: the file
+     * (or any file) was reloaded, or the path replacement rules were. This must be
+     * called before the data for the page is looked up, so a page rendered from data
+     * that is replaced meanwhile is not sent with the time of the replacement.
+     */
+    private long lastModified(final String gedcomName) {
+        final long loaded = Objects.isNull(gedcomName) ? this.files.getLastModified() : this.files.getLastModified(gedcomName);
+        return Math.max(loaded, this.pathReplacementsLoaded);
+    }
+
+
+
+    /*
+     * Sends the page (from the cache, or rendering, and compressing, it into the cache first), or
+     * just "304 Not Modified" if the client's copy is still current. If the cache
+     * is disabled, or the page has no key, the page is rendered straight to the
+     * response instead (in which case, it has no ETag).
+     * Pages that depend on who is signed in (auth is not null) may only be cached
+     * privately, and vary on the cookies (which carry the Google ID token).
+     */
+    private String serve(final Request req, final Response res, final PageKey key, final long lastModified, final RbacRole auth, final String view, final Supplier<Object[]> args) throws IOException {
+        if (Objects.isNull(key) || !this.pages.enabled()) {
+            headers(res, lastModified, auth);
+            if (notModified(req, null, lastModified)) {
+                res.status(SC_NOT_MODIFIED);
+                return "";
+            }
+            final Object[] model = args.get();
+            try (final Writer out = new BufferedWriter(new OutputStreamWriter(body(req, res, -1), StandardCharsets.UTF_8), 8 * 1024)) {
+                final long start = System.nanoTime();
+                TEMPLATES.render(view, model, out);
+                this.timeRender.observeSince(start);
+            }
+            return "";
+        }
+
+        final Optional<RenderedPage> cached = this.pages.get(key);
+        final RenderedPage page;
+        if (cached.isPresent()) {
+            page = cached.get();
+        } else {
+            log().finer(() -> "Page cache miss: "+key);
+            page = renderPage(lastModified, view, args.get());
+            /*
+             * The page may have been rendered from data that was replaced (and its
+             * cached pages invalidated) while the request was in progress; if any
+             * cached pages were invalidated since the request started, don't keep it.
+             */
+            final Long started = req.attribute(GENERATION);
+            final long generation = Objects.isNull(started) ? this.generation.get() : started;
+            this.pages.putIf(key, page, () -> this.generation.get() == generation);
+        }
+        headers(res, page.lastModified(), auth);
+        send(req, res, page);
+        return "";
+    }
+
+    private String asset(final Request req, final Response res, final String path, final RenderedPage asset) throws IOException {
+        res.type(StaticAssets.contentType(path));
+        lastModified(res, asset.lastModified());
+        res.header("Cache-Control", "public, max-age="+ASSET_MAX_AGE);
+        res.header("Vary", "Accept-Encoding");
+        send(req, res, asset);
+        return "";
+    }
+
+    /*
+     * Sends the page (or static file), as already compressed if the client accepts
+     * gzip (and there is a compressed form), so it is compressed only once, not
+     * for every request; or just "304 Not Modified" if the client's copy is still
+     * current. Each form has its own ETag.
+     */
+    private static void send(final Request req, final Response res, final RenderedPage page) throws IOException {
+        final boolean gzip = !Objects.isNull(page.gzip()) && acceptsGzip(req);
+        final String etag = gzip ? page.gzipEtag() : page.etag();
+        res.header("ETag", etag);
+        if (notModified(req, etag, page.lastModified())) {
+            res.status(SC_NOT_MODIFIED);
+            return;
+        }
+        final byte[] content = gzip ? page.gzip() : page.utf8();
+        final HttpServletResponse raw = res.raw();
+        if (gzip) {
+            raw.setHeader("Content-Encoding", "gzip");
+        }
+        raw.setContentLength(content.length);
+        try (final OutputStream out = raw.getOutputStream()) {
+            out.write(content);
+        }
+    }
+
+    private RenderedPage renderPage(final long lastModified, final String view, final Object[] args) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        try (final Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            final long start = System.nanoTime();
+            TEMPLATES.render(view, args, out);
+            this.timeRender.observeSince(start);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new RenderedPage(bytes.toByteArray(), lastModified, GZIP);
+    }
+
+    /*
+     * Sends the (uncached) JSON, or just "304 Not Modified".
+     */
+    private static String serveJson(final Request req, final Response res, final long lastModified, final RbacRole auth, final String json) throws IOException {
+        headers(res, lastModified, auth);
+        res.type("application/json; charset=utf-8");
+        if (notModified(req, null, lastModified)) {
+            res.status(SC_NOT_MODIFIED);
+            return "";
+        }
+        final byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+        try (final OutputStream out = body(req, res, utf8.length)) {
+            out.write(utf8);
+        }
+        return "";
+    }
+
+    private static void headers(final Response res, final long lastModified, final RbacRole auth) {
         res.type("application/xhtml+xml; charset=utf-8");
-        final List<String> otherFiles = this.files.getXrefs(gedcomName, uuid);
-        final NoteList footnotes = GedcomFilesHandler.getFootnotesFor(person.get());
-        final String copyright = this.files.getCopyright(gedcomName);
-        return render("person.tat", person.get(), gedcomName, otherFiles, footnotes, "../..", auth, googleClientID(), copyright).trim();
+        lastModified(res, lastModified);
+        if (Objects.isNull(auth)) {
+            res.header("Cache-Control", "public, no-cache");
+            res.header("Vary", "Accept-Encoding");
+        } else {
+            res.header("Cache-Control", (auth.signedIn() ? "private" : "public")+", no-cache");
+            res.header("Vary", "Cookie, Accept-Encoding");
+        }
+    }
+
+    private static void lastModified(final Response res, final long lastModified) {
+        if (0L < lastModified) {
+            res.header("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(lastModified).atZone(ZoneOffset.UTC)));
+        }
+    }
+
+    /*
+     * Output stream for the body of the response, compressed if the client accepts it.
+     * Closing it commits the response.
+     */
+    private static OutputStream body(final Request req, final Response res, final int length) throws IOException {
+        final HttpServletResponse raw = res.raw();
+        if (GZIP && acceptsGzip(req)) {
+            raw.setHeader("Content-Encoding", "gzip");
+            return new GZIPOutputStream(raw.getOutputStream(), 8 * 1024);
+        }
+        if (0 <= length) {
+            raw.setContentLength(length);
+        }
+        return raw.getOutputStream();
     }
 
+    private static boolean acceptsGzip(final Request req) {
+        final String accept = req.headers("Accept-Encoding");
+        if (Objects.isNull(accept)) {
+            return false;
+        }
+        for (final String coding : accept.split(",")) {
+            final String[] params = coding.trim().split(";");
+            if (params[0].trim().equalsIgnoreCase("gzip")) {
+                return !(1 < params.length && params[1].replace(" ", "").matches("q=0(\\.0*)?"));
+            }
+        }
+        return false;
+    }
 
+    private static boolean notModified(final Request req, final String etag, final long lastModified) {
+        final String ifNoneMatch = req.headers("If-None-Match");
+        if (!Objects.isNull(ifNoneMatch)) {
+            if (Objects.isNull(etag)) {
+                return false;
+            }
+            for (final String tag : ifNoneMatch.split(",")) {
+                final String t = tag.trim();
+                if (t.equals("*") || t.equals(etag) || t.equals("W/"+etag)) {
+                    return true;
+                }
+            }
+            /* If-Modified-Since is ignored when If-None-Match is present */
+            return false;
+        }
 
-    private static String render(final String view, final Object... args) {
-        return new TemplAtEngine().render(new ModelAndView(args, view));
+        if (lastModified <= 0L) {
+            return false;
+        }
+        try {
+            final long since = req.raw().getDateHeader("If-Modified-Since");
+            return 0L <= since && lastModified / 1000L <= since / 1000L;
+        } catch (final IllegalArgumentException badDate) {
+            return false;
+        }
     }
 }
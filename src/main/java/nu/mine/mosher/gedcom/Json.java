@@ -0,0 +1,42 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.model.Person;
+
+/*
+ * Just enough JSON writing for our few JSON responses.
+ */
+final class Json {
+    private Json() {
+        throw new IllegalStateException();
+    }
+
+    static StringBuilder string(final StringBuilder sb, final String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < ' ') {
+                        sb.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"');
+    }
+
+    /* {"uuid":"...","name":"..."} */
+    static StringBuilder person(final StringBuilder sb, final Person person) {
+        sb.append("{\"uuid\":");
+        string(sb, String.valueOf(person.getUuid()));
+        sb.append(",\"name\":");
+        string(sb, person.getNameSortedDisplay());
+        return sb.append('}');
+    }
+}
@@ -0,0 +1,290 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.*;
+import nu.mine.mosher.gedcom.model.Person;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/*
+ * Finds how two people are related: their nearest common ancestors (those
+ * with the fewest generations in total between them and the two people).
+ * Searches up through parents from both people, breadth-first, a generation
+ * at a time, always extending the side that has searched fewer generations
+ * (or, if equal, has the smaller frontier), until neither side could still
+ * find a nearer common ancestor. People are identified by longs (as numbered
+ * by the Graph), and the search uses only flat arrays of longs and ints.
+ *
+ * The complete ancestry of each person who is asked about more than once is
+ * kept (in a cache shared by all graphs, up to a maximum number of ancestors
+ * in total), after which only the other person's side needs to be searched.
+ * Kept ancestries are only numbers, keyed by the number of the Kinship (not
+ * by its graph), so they never keep a graph that has been replaced (or the
+ * files it was built from) in memory; retire drops them when it is replaced.
+ */
+final class Kinship {
+    interface Graph {
+        /**
+         * Calls the action with each parent of the given person. Relations and
+         * people that are private are skipped, unless the user is authorized.
+         */
+        void forEachParent(long node, boolean authorized, LongConsumer action);
+
+        Person personOf(long node);
+    }
+
+    /* generations searched, at most, up from each person */
+    private static final int MAX_GENERATIONS = 64;
+    private static final LruCache<Key, LongIntMap> ANCESTRIES = new LruCache<>("ancestries", ancestryCacheSize(), m -> m.size());
+    private static final LruCache<Key, Boolean> ASKED = new LruCache<>("asked", 10_000L, b -> 1L);
+
+    /*
+     * Ancestries larger than this are not kept (nor built in full), as the cache
+     * would not hold them: 200,000 ancestors, or 1/16 of ANCESTRY_CACHE, if less.
+     */
+    private static final long MAX_KEPT_ANCESTRY = Math.min(200_000L, ANCESTRIES.maxValueWeight());
+
+    private static long ancestryCacheSize() {
+        return Util.envLong("ANCESTRY_CACHE", 1_000_000L);
+    }
+
+    static LruCache<?, ?> ancestries() {
+        return ANCESTRIES;
+    }
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id = NEXT_ID.incrementAndGet();
+    private final Graph graph;
+    private final boolean remember;
+
+    Kinship(final Graph graph) {
+        this(graph, true);
+    }
+
+    /**
+     * @param graph everyone, and their parents
+     * @param remember whether to keep the ancestries of people asked about more than once
+     */
+    Kinship(final Graph graph, final boolean remember) {
+        this.graph = graph;
+        this.remember = remember;
+    }
+
+    /**
+     * Forgets the kept ancestries of this graph's people (after the graph has
+     * been replaced, by reloading the files it was built from).
+     */
+    void retire() {
+        ANCESTRIES.invalidateIf(key -> key.kinship == this.id);
+        ASKED.invalidateIf(key -> key.kinship == this.id);
+    }
+
+    /**
+     * @param a one person
+     * @param b the other person
+     * @param authorized whether the user may see private information
+     * @return how b is related to a
+     */
+    Relationship relate(final long a, final long b, final boolean authorized) {
+        final LongIntMap keptA = kept(a, authorized);
+        final LongIntMap keptB = keptA == null ? kept(b, authorized) : null;
+        if (keptB != null) {
+            final Relationship r = search(b, a, keptB, authorized);
+            return new Relationship(r.getB(), r.getA(), r.getGenerationsFromB(), r.getGenerationsFromA(), r.getCommonAncestors());
+        }
+        return search(a, b, keptA, authorized);
+    }
+
+    /* the kept ancestry of the person, if any; if they have been asked about before, build it and keep it */
+    private LongIntMap kept(final long node, final boolean authorized) {
+        if (!this.remember || MAX_KEPT_ANCESTRY <= 0L) {
+            return null;
+        }
+        final Key key = new Key(this.id, node, authorized);
+        final Optional<LongIntMap> ancestry = ANCESTRIES.get(key);
+        if (ancestry.isPresent()) {
+            return ancestry.get();
+        }
+        if (!ASKED.get(key).isPresent()) {
+            ASKED.put(key, Boolean.TRUE);
+            return null;
+        }
+        final Side side = new Side(node);
+        while (!side.done() && side.generations.size() <= MAX_KEPT_ANCESTRY) {
+            side.extend(null, true, authorized);
+        }
+        if (!side.done() || MAX_KEPT_ANCESTRY < side.generations.size()) {
+            return null;
+        }
+        ANCESTRIES.put(key, side.generations);
+        return side.generations;
+    }
+
+    /* search from b (and from a, unless a's ancestry is already complete) */
+    private Relationship search(final long a, final long b, final LongIntMap keptA, final boolean authorized) {
+        final Side sideA = keptA == null ? new Side(a) : new Side(keptA);
+        final Side sideB = new Side(b);
+
+        /* b itself is (or is not) a common ancestor */
+        if (sideA.generations.contains(b)) {
+            sideA.meet(b, sideA.generations.get(b), 0);
+        }
+
+        while (!(sideA.done() && sideB.done()) && Math.min(sideA.bound(), sideB.bound()) <= sideA.best) {
+            final boolean extendA;
+            if (sideA.bound() != sideB.bound()) {
+                extendA = sideA.bound() < sideB.bound();
+            } else {
+                extendA = sideA.frontier.size() <= sideB.frontier.size();
+            }
+            if (extendA) {
+                sideA.extend(sideB, true, authorized);
+            } else {
+                sideB.extend(sideA, false, authorized);
+            }
+        }
+
+        final Meetings meetings = sideA.meetings;
+        final List<Person> common = new ArrayList<>(meetings.nodes.size());
+        for (int i = 0; i < meetings.nodes.size(); ++i) {
+            common.add(this.graph.personOf(meetings.nodes.get(i)));
+        }
+        return new Relationship(this.graph.personOf(a), this.graph.personOf(b), meetings.up, meetings.down, common);
+    }
+
+
+
+    /* one side of the search: everyone found so far, and the latest generation of them */
+    private final class Side {
+        /* node to number of generations up */
+        private final LongIntMap generations;
+        private LongList frontier;
+        private int level;
+        /* (only used on side a) */
+        private final Meetings meetings = new Meetings();
+        private int best = Integer.MAX_VALUE;
+
+        private Side(final long start) {
+            this.generations = new LongIntMap(64);
+            this.generations.put(start, 0);
+            this.frontier = new LongList(4);
+            this.frontier.add(start);
+        }
+
+        /* already complete */
+        private Side(final LongIntMap complete) {
+            this.generations = complete;
+            this.frontier = new LongList(0);
+        }
+
+        private boolean done() {
+            return this.frontier.size() == 0 || this.level == MAX_GENERATIONS;
+        }
+
+        /*
+         * Lowest total (of generations from both people) of any common ancestor
+         * that this side has not found yet.
+         */
+        private int bound() {
+            return done() ? Integer.MAX_VALUE : this.level + 1;
+        }
+
+        /* finds the next generation, checking each new person against the other side (if any) */
+        private void extend(final Side other, final boolean isA, final boolean authorized) {
+            final LongList next = new LongList(this.frontier.size() * 2);
+            final int g = this.level + 1;
+            for (int i = 0; i < this.frontier.size(); ++i) {
+                Kinship.this.graph.forEachParent(this.frontier.get(i), authorized, parent -> {
+                    if (this.generations.putIfAbsent(parent, g)) {
+                        next.add(parent);
+                        if (other != null && other.generations.contains(parent)) {
+                            final Side a = isA ? this : other;
+                            final int up = isA ? g : other.generations.get(parent);
+                            final int down = isA ? other.generations.get(parent) : g;
+                            a.meet(parent, up, down);
+                        }
+                    }
+                });
+            }
+            this.frontier = next;
+            this.level = g;
+        }
+
+        /* nearest first, then (for the same total) the least removed */
+        private void meet(final long node, final int up, final int down) {
+            final int total = up + down;
+            final Meetings m = this.meetings;
+            if (total < this.best || (total == this.best && Math.abs(up - down) < Math.abs(m.up - m.down))) {
+                this.best = total;
+                m.up = up;
+                m.down = down;
+                m.nodes = new LongList(2);
+            }
+            if (up == m.up && down == m.down) {
+                m.nodes.add(node);
+            }
+        }
+    }
+
+    private static final class Meetings {
+        private int up = -1;
+        private int down = -1;
+        private LongList nodes = new LongList(0);
+    }
+
+    /* kept ancestries are per Kinship (so, per graph), person, and authorization */
+    private static final class Key {
+        private final long kinship;
+        private final long node;
+        private final boolean authorized;
+
+        private Key(final long kinship, final long node, final boolean authorized) {
+            this.kinship = kinship;
+            this.node = node;
+            this.authorized = authorized;
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key)object;
+            return this.kinship == that.kinship && this.node == that.node && this.authorized == that.authorized;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Long.hashCode(this.kinship) * 31 + Long.hashCode(this.node)) * 2 + (this.authorized ? 1 : 0);
+        }
+    }
+
+
+
+    /* growable array of longs */
+    static final class LongList {
+        private long[] a;
+        private int size;
+
+        LongList(final int capacity) {
+            this.a = new long[Math.max(4, capacity)];
+        }
+
+        void add(final long i) {
+            if (this.size == this.a.length) {
+                this.a = Arrays.copyOf(this.a, this.size * 2);
+            }
+            this.a[this.size++] = i;
+        }
+
+        long get(final int i) {
+            return this.a[i];
+        }
+
+        int size() {
+            return this.size;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.model.Person;
+
+import java.util.*;
+
+/**
+ * Ancestors (or descendants) of one person, by generation.
+ */
+public final class Lineage {
+    public static final class Generation {
+        private final int number;
+        private final boolean ancestors;
+        private final List<Person> people = new ArrayList<>();
+
+        Generation(final int number, final boolean ancestors) {
+            this.number = number;
+            this.ancestors = ancestors;
+        }
+
+        void add(final Person person) {
+            this.people.add(person);
+        }
+
+        /**
+         * @return number of generations away from the person (1 for parents, or children)
+         */
+        public int getNumber() {
+            return this.number;
+        }
+
+        /**
+         * @return name of the generation, for example "parents", or "2nd great-grandchildren"
+         */
+        public String getLabel() {
+            final String base = this.ancestors ? "parents" : "children";
+            switch (this.number) {
+                case 1: return base;
+                case 2: return "grand" + base;
+                case 3: return "great-grand" + base;
+                default: return ordinal(this.number - 2) + " great-grand" + base;
+            }
+        }
+
+        public List<Person> getPeople() {
+            return Collections.unmodifiableList(this.people);
+        }
+    }
+
+    private final Person person;
+    private final boolean ancestors;
+    private final int depth;
+    private final List<Generation> generations;
+    private final boolean truncated;
+
+    Lineage(final Person person, final boolean ancestors, final int depth, final List<Generation> generations, final boolean truncated) {
+        this.person = person;
+        this.ancestors = ancestors;
+        this.depth = depth;
+        this.generations = Collections.unmodifiableList(generations);
+        this.truncated = truncated;
+    }
+
+    public Person getPerson() {
+        return this.person;
+    }
+
+    /**
+     * @return true for ancestors, false for descendants
+     */
+    public boolean isAncestors() {
+        return this.ancestors;
+    }
+
+    public String getDirection() {
+        return this.ancestors ? "ancestors" : "descendants";
+    }
+
+    /**
+     * @return maximum number of generations requested
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * @return one more generation than this
+     */
+    public int getMore() {
+        return this.depth + 1;
+    }
+
+    /**
+     * @return one fewer generation than this (but at least one)
+     */
+    public int getFewer() {
+        return Math.max(1, this.depth - 1);
+    }
+
+    public List<Generation> getGenerations() {
+        return this.generations;
+    }
+
+    /**
+     * @return true if some people were left out (there were too many)
+     */
+    public boolean isTruncated() {
+        return this.truncated;
+    }
+
+    static String ordinal(final int n) {
+        if (n % 100 / 10 == 1) {
+            return n + "th";
+        }
+        switch (n % 10) {
+            case 1: return n + "st";
+            case 2: return n + "nd";
+            case 3: return n + "rd";
+            default: return n + "th";
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.Util;
+import nu.mine.mosher.gedcom.model.Loader;
+
+/*
+ * One loaded gedcom file, with what we know about
+ * the file it was loaded from, and the indexes we
+ * build from it.
+ */
+final class LoadedGedcom {
+    private final Loader loader;
+    private final long lastModified;
+    private final PersonIndex personIndex;
+    private final SearchIndex searchIndex;
+    private final PersonViews personViews;
+    private final FamilyGraph familyGraph;
+    private final Kinship kinship;
+    private final byte[] sortKey;
+
+    LoadedGedcom(final Loader loader, final long lastModified) {
+        this.loader = loader;
+        this.lastModified = lastModified;
+        this.personIndex = new PersonIndex(loader.getAllPeople());
+        this.searchIndex = new SearchIndex(this.personIndex.everyone());
+        this.personViews = new PersonViews(this.personIndex.everyone(), PersonViews.fromEnvironment());
+        this.familyGraph = new FamilyGraph(this.personIndex.everyone());
+        this.kinship = new Kinship(this.familyGraph);
+        this.sortKey = Util.sortKey(Util.createCollator(), loader.getName());
+    }
+
+    String name() {
+        return this.loader.getName();
+    }
+
+    Loader loader() {
+        return this.loader;
+    }
+
+    long lastModified() {
+        return this.lastModified;
+    }
+
+    PersonIndex personIndex() {
+        return this.personIndex;
+    }
+
+    SearchIndex searchIndex() {
+        return this.searchIndex;
+    }
+
+    PersonViews personViews() {
+        return this.personViews;
+    }
+
+    FamilyGraph familyGraph() {
+        return this.familyGraph;
+    }
+
+    Kinship kinship() {
+        return this.kinship;
+    }
+
+    /* sort key of the file name */
+    byte[] sortKey() {
+        return this.sortKey;
+    }
+}
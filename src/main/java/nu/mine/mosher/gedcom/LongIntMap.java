@@ -0,0 +1,95 @@
+package nu.mine.mosher.gedcom;
+
+/*
+ * Map of non-negative longs to ints: an open-addressing hash table (linear
+ * probing) in two flat arrays, with no boxing, or objects per entry. Used
+ * for the sets and maps of people (by number) in graph traversals.
+ */
+final class LongIntMap {
+    /* the key plus one; zero means empty */
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    LongIntMap(final int capacity) {
+        int c = 16;
+        while (c < capacity * 2) {
+            c <<= 1;
+        }
+        this.keys = new long[c];
+        this.values = new int[c];
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    boolean contains(final long key) {
+        return 0 <= find(key);
+    }
+
+    /**
+     * @return the value for the key (which must be in the map)
+     */
+    int get(final long key) {
+        return this.values[find(key)];
+    }
+
+    /**
+     * @return true if the key was added (that is, was not already in the map)
+     */
+    boolean putIfAbsent(final long key, final int value) {
+        if (this.keys.length < (this.size + 1) * 2) {
+            grow();
+        }
+        int slot = slot(key, this.keys.length);
+        while (this.keys[slot] != 0L) {
+            if (this.keys[slot] == key + 1L) {
+                return false;
+            }
+            slot = (slot + 1) & (this.keys.length - 1);
+        }
+        this.keys[slot] = key + 1L;
+        this.values[slot] = value;
+        ++this.size;
+        return true;
+    }
+
+    void put(final long key, final int value) {
+        if (!putIfAbsent(key, value)) {
+            this.values[find(key)] = value;
+        }
+    }
+
+    private int find(final long key) {
+        for (int slot = slot(key, this.keys.length); this.keys[slot] != 0L; slot = (slot + 1) & (this.keys.length - 1)) {
+            if (this.keys[slot] == key + 1L) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void grow() {
+        final long[] oldKeys = this.keys;
+        final int[] oldValues = this.values;
+        this.keys = new long[oldKeys.length * 2];
+        this.values = new int[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != 0L) {
+                int slot = slot(oldKeys[i] - 1L, this.keys.length);
+                while (this.keys[slot] != 0L) {
+                    slot = (slot + 1) & (this.keys.length - 1);
+                }
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int slot(final long key, final int length) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 32;
+        return (int)h & (length - 1);
+    }
+}
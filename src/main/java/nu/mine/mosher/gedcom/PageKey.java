@@ -0,0 +1,59 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.RbacRole;
+
+import java.util.*;
+
+/*
+ * Identifies one rendered page: which gedcom file, which person (if any),
+ * which variant of the viewer's role it was rendered for, and which part
+ * of the page (for pages that are split into parts, or empty).
+ */
+final class PageKey {
+    private final String gedcomName;
+    private final UUID uuid;
+    private final RbacRole.Variant variant;
+    private final String part;
+
+    PageKey(final String gedcomName, final UUID uuid, final RbacRole.Variant variant) {
+        this(gedcomName, uuid, variant, "");
+    }
+
+    PageKey(final String gedcomName, final UUID uuid, final RbacRole.Variant variant, final String part) {
+        this.gedcomName = gedcomName;
+        this.uuid = uuid;
+        this.variant = variant;
+        this.part = part;
+    }
+
+    String gedcomName() {
+        return this.gedcomName;
+    }
+
+    UUID uuid() {
+        return this.uuid;
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        if (!(object instanceof PageKey)) {
+            return false;
+        }
+        final PageKey that = (PageKey)object;
+        return
+            Objects.equals(this.gedcomName, that.gedcomName) &&
+            Objects.equals(this.uuid, that.uuid) &&
+            this.variant == that.variant &&
+            this.part.equals(that.part);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.gedcomName, this.uuid, this.variant, this.part);
+    }
+
+    @Override
+    public String toString() {
+        return this.gedcomName + "/" + this.uuid + "/" + this.variant + "/" + this.part;
+    }
+}
@@ -0,0 +1,210 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.*;
+import nu.mine.mosher.gedcom.model.Person;
+
+import java.text.*;
+import java.util.*;
+
+/**
+ * All the people in one gedcom file, sorted by (collated) name, for the index
+ * pages. Built once, when the file is loaded. There are two versions of the
+ * list: one with everyone (for authorized users), and one without private
+ * people (for everyone else). Each list is divided into buckets by the first
+ * letter of the name, and is shown in pages, which are identified by the
+ * position of the first person on the page (the "cursor").
+ */
+@SuppressWarnings("unused") /* used in templates */
+public final class PersonIndex {
+    /**
+     * The people whose names start with one letter.
+     */
+    public static final class Bucket {
+        private final String letter;
+        private final int from;
+
+        private Bucket(final String letter, final int from) {
+            this.letter = letter;
+            this.from = from;
+        }
+
+        public String getLetter() {
+            return this.letter;
+        }
+
+        public int getFrom() {
+            return this.from;
+        }
+    }
+
+    /**
+     * One page of the index.
+     */
+    public static final class Page {
+        private final List<Person> people;
+        private final List<Bucket> buckets;
+        private final int from;
+        private final int size;
+        private final int total;
+
+        private Page(final List<Person> all, final List<Bucket> buckets, final int from, final int size) {
+            this.total = all.size();
+            this.from = Math.max(0, Math.min(from, this.total));
+            this.size = size;
+            this.people = all.subList(this.from, Math.min(this.from + size, this.total));
+            this.buckets = buckets;
+        }
+
+        public List<Person> getPeople() {
+            return this.people;
+        }
+
+        public List<Bucket> getBuckets() {
+            return this.buckets;
+        }
+
+        public int getFrom() {
+            return this.from;
+        }
+
+        public int getTotal() {
+            return this.total;
+        }
+
+        public boolean hasPrev() {
+            return 0 < this.from;
+        }
+
+        public int getPrev() {
+            return Math.max(0, this.from - this.size);
+        }
+
+        public boolean hasNext() {
+            return this.from + this.size < this.total;
+        }
+
+        public int getNext() {
+            return this.from + this.size;
+        }
+    }
+
+    private static final class Keyed {
+        private final Person person;
+        private final byte[] key;
+
+        private Keyed(final Person person, final byte[] key) {
+            this.person = person;
+            this.key = key;
+        }
+    }
+
+    private final List<Person> all;
+    private final List<Person> visible;
+    private final List<Bucket> bucketsAll;
+    private final List<Bucket> bucketsVisible;
+    /* sort key of each person's name, in the same order as all */
+    private final byte[][] keys;
+
+    PersonIndex(final List<Person> people) {
+        /* compute each collation key once, rather than on every comparison */
+        final Collator collator = Util.createCollator();
+        final List<Keyed> keyed = new ArrayList<>(people.size());
+        for (final Person person : people) {
+            keyed.add(new Keyed(person, Util.sortKey(collator, person.getNameSortedDisplay())));
+        }
+        keyed.sort((k1, k2) -> Util.compareSortKeys(k1.key, k2.key));
+
+        final List<Person> sorted = new ArrayList<>(keyed.size());
+        this.keys = new byte[keyed.size()][];
+        for (int i = 0; i < keyed.size(); ++i) {
+            sorted.add(keyed.get(i).person);
+            this.keys[i] = keyed.get(i).key;
+        }
+
+        final List<Person> pub = new ArrayList<>(sorted.size());
+        for (final Person person : sorted) {
+            if (!person.isPrivate()) {
+                pub.add(person);
+            }
+        }
+
+        this.all = Collections.unmodifiableList(sorted);
+        this.visible = Collections.unmodifiableList(pub);
+        this.bucketsAll = buckets(this.all);
+        this.bucketsVisible = buckets(this.visible);
+    }
+
+    /**
+     * @param role role of the user
+     * @param from position of the first person on the page
+     * @param size maximum number of people on the page
+     * @return the page
+     */
+    public Page page(final RbacRole role, final int from, final int size) {
+        if (role.authorized()) {
+            return new Page(this.all, this.bucketsAll, from, size);
+        }
+        return new Page(this.visible, this.bucketsVisible, from, size);
+    }
+
+    /**
+     * @param role role of the user
+     * @param letter first letter of names
+     * @return position of the first person whose name starts with the letter, or empty if there are none
+     */
+    public OptionalInt find(final RbacRole role, final String letter) {
+        final String want = bucketLetter(letter);
+        for (final Bucket bucket : role.authorized() ? this.bucketsAll : this.bucketsVisible) {
+            if (bucket.getLetter().equals(want)) {
+                return OptionalInt.of(bucket.getFrom());
+            }
+        }
+        return OptionalInt.empty();
+    }
+
+    /**
+     * @param i position in the list of everyone
+     * @return sort key of the name of the person at that position
+     */
+    byte[] sortKey(final int i) {
+        return this.keys[i];
+    }
+
+    public int size(final RbacRole role) {
+        return role.authorized() ? this.all.size() : this.visible.size();
+    }
+
+    /* everyone (including private people), in sorted order */
+    List<Person> everyone() {
+        return this.all;
+    }
+
+    private static List<Bucket> buckets(final List<Person> people) {
+        final List<Bucket> buckets = new ArrayList<>(32);
+        /* (a letter the collator treats as a variant of another could otherwise appear more than once) */
+        final Set<String> seen = new HashSet<>(64);
+        for (int i = 0; i < people.size(); ++i) {
+            final String letter = bucketLetter(people.get(i).getNameSortedDisplay());
+            if (seen.add(letter)) {
+                buckets.add(new Bucket(letter, i));
+            }
+        }
+        return Collections.unmodifiableList(buckets);
+    }
+
+    /*
+     * First letter, without accents, in upper case (matching the
+     * primary strength of the collator); or "?" if there is none.
+     */
+    private static String bucketLetter(final String name) {
+        if (Objects.isNull(name) || name.isEmpty()) {
+            return "?";
+        }
+        final String first = Normalizer.normalize(name.substring(0, Character.charCount(name.codePointAt(0))), Normalizer.Form.NFD);
+        final int cp = first.codePointAt(0);
+        if (!Character.isLetter(cp)) {
+            return "?";
+        }
+        return new String(Character.toChars(cp)).toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,180 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.*;
+import nu.mine.mosher.collection.NoteList;
+import nu.mine.mosher.gedcom.model.*;
+import nu.mine.mosher.metrics.Histogram;
+
+import java.util.*;
+
+/**
+ * Everything derived from one person (and their immediate family) that
+ * the person page shows: footnotes, styled citations and transcripts,
+ * event types, children's birthdates, and whether the person and their
+ * parents and children have lineage or issue (that is, whether their
+ * ancestors, or descendants, chart would not be empty, for anonymous
+ * users, and for authorized ones). Computed all at once, and never changed afterwards,
+ * so one instance can be shared by any number of requests. (Whether
+ * private information is shown is still decided by the templates.)
+ * Every note and citation the page refers to is numbered up front, in
+ * the order the page shows them, and templates only look the numbers up
+ * (with footnum), never add to them.
+ */
+public final class PersonView {
+    private final NoteList footnotes;
+    /* footnote number (one-origin), by note or citation */
+    private final Map<Object, Integer> footnums;
+    /* by footnote index (zero-origin); null for footnotes that are not citations */
+    private final String[] citations;
+    private final String[] transcripts;
+    /* styled event type, by type */
+    private final Map<String, String> eventTypes = new HashMap<>(16);
+    /* by child */
+    private final Map<Person, String> birthdates = new IdentityHashMap<>(8);
+    /* whether the person and each parent have parents, and the person and each child have children (see has) */
+    private final Map<Person, Integer> lineage = new IdentityHashMap<>(4);
+    private final Map<Person, Integer> issue = new IdentityHashMap<>(8);
+
+    PersonView(final Person person) {
+        this(person, Util.citationTimes());
+    }
+
+    /**
+     * @param person the person
+     * @param citationTimes where to record the time taken styling citations (the
+     * request phase, unless the view is being built when the file is loaded)
+     */
+    PersonView(final Person person, final Histogram citationTimes) {
+        this.footnotes = GedcomFilesHandler.getFootnotesFor(person);
+
+        this.footnums = new HashMap<>(this.footnotes.size() * 2);
+        for (int n = 1; n <= this.footnotes.size(); ++n) {
+            this.footnums.putIfAbsent(this.footnotes.getNote(n), n);
+        }
+
+        this.citations = new String[this.footnotes.size()];
+        this.transcripts = new String[this.footnotes.size()];
+        for (int i = 0; i < this.footnotes.size(); ++i) {
+            if (Util.isCitation(this.footnotes, i)) {
+                final Citation cita = (Citation)this.footnotes.getNote(i + 1);
+                this.citations[i] = Util.styleCitation(cita, citationTimes);
+                this.transcripts[i] = Util.styleTranscripts(cita, citationTimes);
+            }
+        }
+
+        person.getEvents().forEach(this::addEventType);
+        person.getPartnerships().forEach(part -> {
+            part.getEvents().forEach(this::addEventType);
+            part.getChildRelations().forEach(rel -> {
+                final Person child = rel.getOther();
+                if (child != null) {
+                    this.birthdates.put(child, Util.getBirthdate(child));
+                    this.issue.put(child, issue(child));
+                }
+            });
+        });
+
+        person.getFathers().forEach(rel -> addLineage(rel.getOther()));
+        person.getMothers().forEach(rel -> addLineage(rel.getOther()));
+        addLineage(person);
+        this.issue.put(person, issue(person));
+    }
+
+    /* bit 0: has (visible) parents, or children, for anonymous users; bit 1: for authorized users */
+    private static int lineage(final Person person) {
+        return (FamilyGraph.hasParents(person, false) ? 1 : 0) | (FamilyGraph.hasParents(person, true) ? 2 : 0);
+    }
+
+    private static int issue(final Person person) {
+        return (FamilyGraph.hasChildren(person, false) ? 1 : 0) | (FamilyGraph.hasChildren(person, true) ? 2 : 0);
+    }
+
+    private static boolean has(final int flags, final RbacRole auth) {
+        return (flags & (auth.authorized() ? 2 : 1)) != 0;
+    }
+
+    private void addEventType(final Event event) {
+        this.eventTypes.computeIfAbsent(event.getType(), t -> Util.eventType(event));
+    }
+
+    private void addLineage(final Person parent) {
+        if (parent != null) {
+            this.lineage.put(parent, lineage(parent));
+        }
+    }
+
+    public int footnoteCount() {
+        return this.footnotes.size();
+    }
+
+    /**
+     * @param i footnote index (zero-origin)
+     * @return the note, or citation
+     */
+    public Object footnote(final int i) {
+        return this.footnotes.getNote(i + 1);
+    }
+
+    /**
+     * @param i footnote index (zero-origin)
+     * @return whether the footnote is a citation
+     */
+    public boolean isCitation(final int i) {
+        return Util.isCitation(this.footnotes, i);
+    }
+
+    /**
+     * @param note note or citation (of one of the events on the page)
+     * @return its footnote number (one-origin), or 0 if it has none
+     */
+    public int footnum(final Object note) {
+        final Integer n = this.footnums.get(note);
+        return n == null ? 0 : n;
+    }
+
+    /**
+     * @param i footnote index (zero-origin)
+     * @return styled citation
+     */
+    public String citation(final int i) {
+        return this.citations[i];
+    }
+
+    /**
+     * @param i footnote index (zero-origin)
+     * @return styled transcripts of the citation
+     */
+    public String transcript(final int i) {
+        return this.transcripts[i];
+    }
+
+    public String eventType(final Event event) {
+        final String type = this.eventTypes.get(event.getType());
+        return type != null ? type : Util.eventType(event);
+    }
+
+    public String birthdate(final Person child) {
+        final String date = this.birthdates.get(child);
+        return date != null ? date : Util.getBirthdate(child);
+    }
+
+    /**
+     * @param person the person, or one of their parents
+     * @param auth role of the user
+     * @return whether the user's chart of the person's ancestors would not be empty
+     */
+    public boolean hasLineage(final Person person, final RbacRole auth) {
+        final Integer flags = this.lineage.get(person);
+        return has(flags != null ? flags : lineage(person), auth);
+    }
+
+    /**
+     * @param person the person, or one of their children
+     * @param auth role of the user
+     * @return whether the user's chart of the person's descendants would not be empty
+     */
+    public boolean hasIssue(final Person person, final RbacRole auth) {
+        final Integer flags = this.issue.get(person);
+        return has(flags != null ? flags : issue(person), auth);
+    }
+}
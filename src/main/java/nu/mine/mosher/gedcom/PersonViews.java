@@ -0,0 +1,55 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.Util;
+import nu.mine.mosher.gedcom.model.Person;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static nu.mine.mosher.logging.Jul.log;
+
+/*
+ * The PersonView of each person in one gedcom file. Depending on the
+ * PERSON_VIEWS environment variable, views are built for everyone when
+ * the file is loaded (in parallel), or for each person on first access
+ * (and kept), or (by default) afresh for each request (the page cache
+ * already keeps the result, and this saves the memory).
+ */
+final class PersonViews {
+    enum Mode { OFF, LAZY, EAGER }
+
+    static Mode fromEnvironment() {
+        final String mode = System.getenv("PERSON_VIEWS");
+        if (Objects.isNull(mode) || mode.isEmpty()) {
+            return Mode.OFF;
+        }
+        try {
+            return Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            log().warning("Ignoring invalid value of environment variable PERSON_VIEWS (not off, lazy, or eager): \""+mode+"\"; using off.");
+            return Mode.OFF;
+        }
+    }
+
+    private final Mode mode;
+    private final ConcurrentMap<UUID, PersonView> views;
+
+    PersonViews(final List<Person> everyone, final Mode mode) {
+        this.mode = mode;
+        this.views = mode == Mode.OFF ? null : new ConcurrentHashMap<>(mode == Mode.EAGER ? everyone.size() * 4 / 3 + 1 : 256);
+        if (mode == Mode.EAGER) {
+            final long start = System.nanoTime();
+            /* (not part of any request, so timed separately) */
+            everyone.parallelStream().filter(p -> p.getUuid() != null).forEach(p -> this.views.put(p.getUuid(), new PersonView(p, Util.loadCitationTimes())));
+            log().info("Built "+this.views.size()+" person views in "+(System.nanoTime() - start) / 1_000_000L+" ms.");
+        }
+    }
+
+    PersonView get(final Person person) {
+        final UUID uuid = person.getUuid();
+        if (this.mode == Mode.OFF || uuid == null) {
+            return new PersonView(person);
+        }
+        return this.views.computeIfAbsent(uuid, k -> new PersonView(person));
+    }
+}
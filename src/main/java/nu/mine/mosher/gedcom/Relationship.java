@@ -0,0 +1,111 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.model.Person;
+
+import java.util.*;
+
+/**
+ * How one person (b) is related to another (a), by blood: their nearest
+ * common ancestors, and how many generations each of them is below those
+ * ancestors. Names are gender-neutral, and do not distinguish half relations
+ * (often only one parent is known, so they could not be told apart reliably).
+ */
+public final class Relationship {
+    private final Person a;
+    private final Person b;
+    /* generations from a (and from b) up to the common ancestors; -1 if not related */
+    private final int up;
+    private final int down;
+    private final List<Person> commonAncestors;
+
+    Relationship(final Person a, final Person b, final int up, final int down, final List<Person> commonAncestors) {
+        this.a = a;
+        this.b = b;
+        this.up = up;
+        this.down = down;
+        this.commonAncestors = Collections.unmodifiableList(commonAncestors);
+    }
+
+    public Person getA() {
+        return this.a;
+    }
+
+    public Person getB() {
+        return this.b;
+    }
+
+    public boolean isRelated() {
+        return 0 <= this.up;
+    }
+
+    public boolean isSamePerson() {
+        return this.up == 0 && this.down == 0;
+    }
+
+    /**
+     * @return number of generations from a up to the common ancestors (0 if b is an ancestor of a)
+     */
+    public int getGenerationsFromA() {
+        return this.up;
+    }
+
+    /**
+     * @return number of generations from b up to the common ancestors (0 if b is a descendant of a)
+     */
+    public int getGenerationsFromB() {
+        return this.down;
+    }
+
+    /**
+     * @return the nearest common ancestors (one of which may be a or b themselves)
+     */
+    public List<Person> getCommonAncestors() {
+        return this.commonAncestors;
+    }
+
+    /**
+     * @return what b is to a, for example "great-grandparent", or "2nd cousin once removed";
+     * or an empty string if they are not related
+     */
+    public String getName() {
+        if (!isRelated()) {
+            return "";
+        }
+        if (isSamePerson()) {
+            return "same person";
+        }
+        if (this.up == 0) {
+            return direct(this.down, "child");
+        }
+        if (this.down == 0) {
+            return direct(this.up, "parent");
+        }
+        if (this.up == 1 && this.down == 1) {
+            return "sibling";
+        }
+        if (this.up == 1) {
+            return direct(this.down - 1, "nephew") + " or " + direct(this.down - 1, "niece");
+        }
+        if (this.down == 1) {
+            return direct(this.up - 1, "aunt") + " or " + direct(this.up - 1, "uncle");
+        }
+        final int removed = Math.abs(this.up - this.down);
+        final String cousin = Lineage.ordinal(Math.min(this.up, this.down) - 1) + " cousin";
+        switch (removed) {
+            case 0: return cousin;
+            case 1: return cousin + " once removed";
+            case 2: return cousin + " twice removed";
+            default: return cousin + " " + removed + " times removed";
+        }
+    }
+
+    /* "parent", "grandparent", "great-grandparent", "2nd great-grandparent", ... */
+    private static String direct(final int generations, final String base) {
+        switch (generations) {
+            case 1: return base;
+            case 2: return "grand" + base;
+            case 3: return "great-grand" + base;
+            default: return Lineage.ordinal(generations - 2) + " great-grand" + base;
+        }
+    }
+}
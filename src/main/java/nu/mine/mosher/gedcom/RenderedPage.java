@@ -0,0 +1,91 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.Util;
+
+import java.io.*;
+import java.util.zip.*;
+
+/*
+ * One fully rendered page (encoded as UTF-8), as cached by the web view,
+ * along with its validators: a strong ETag (a hash of the content) and
+ * the last-modified time of the gedcom file(s) it was rendered from.
+ * Optionally, the page is also compressed (with gzip, once, when it is
+ * created), as a separate representation, with its own ETag. Also used
+ * for static files.
+ */
+final class RenderedPage {
+    private static final long OVERHEAD = 256L;
+    private static final int ETAG_BYTES = 16;
+
+    /* pages this small are not worth compressing */
+    private static final int MIN_GZIP = 256;
+
+    private final byte[] utf8;
+    private final String etag;
+    private final long lastModified;
+    private final byte[] gzip;
+
+    /**
+     * @param utf8 content
+     * @param lastModified last-modified time of the content
+     * @param gzip true to also keep the content compressed with gzip (if that makes it smaller)
+     */
+    RenderedPage(final byte[] utf8, final long lastModified, final boolean gzip) {
+        this.utf8 = utf8;
+        this.etag = etag(utf8);
+        this.lastModified = lastModified;
+        this.gzip = gzip && MIN_GZIP <= utf8.length ? gzip(utf8) : null;
+    }
+
+    /* not copied, for efficiency; callers must not modify it */
+    byte[] utf8() {
+        return this.utf8;
+    }
+
+    String etag() {
+        return this.etag;
+    }
+
+    /* not copied, for efficiency; callers must not modify it */
+    byte[] gzip() {
+        return this.gzip;
+    }
+
+    /* the ETag of the gzipped form ("...-gzip") */
+    String gzipEtag() {
+        return this.etag.substring(0, this.etag.length() - 1) + "-gzip\"";
+    }
+
+    long lastModified() {
+        return this.lastModified;
+    }
+
+    /* approximate heap size, in bytes */
+    long weight() {
+        return OVERHEAD + this.utf8.length + (this.gzip == null ? 0 : this.gzip.length);
+    }
+
+    /* the compressed content, or null if it would be no smaller */
+    private static byte[] gzip(final byte[] content) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4);
+        try (final GZIPOutputStream out = new GZIPOutputStream(bytes) {{ this.def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            out.write(content);
+        } catch (final IOException e) {
+            /* ByteArrayOutputStream does not throw */
+            throw new UncheckedIOException(e);
+        }
+        return bytes.size() < content.length ? bytes.toByteArray() : null;
+    }
+
+    private static String etag(final byte[] body) {
+        final byte[] hash = Util.sha256().digest(body);
+        final StringBuilder sb = new StringBuilder(2 * ETAG_BYTES + 2);
+        sb.append('"');
+        for (int i = 0; i < ETAG_BYTES; ++i) {
+            sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,24 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.model.Person;
+
+/**
+ * A person found by searching, and the gedcom file they were found in.
+ */
+public final class SearchHit {
+    private final String file;
+    private final Person person;
+
+    SearchHit(final String file, final Person person) {
+        this.file = file;
+        this.person = person;
+    }
+
+    public String getFile() {
+        return this.file;
+    }
+
+    public Person getPerson() {
+        return this.person;
+    }
+}
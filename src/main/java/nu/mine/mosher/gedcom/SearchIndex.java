@@ -0,0 +1,186 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.*;
+import nu.mine.mosher.gedcom.model.*;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index of the words in people's names, and the places and dates
+ * of their events (and their partnerships' events), in one gedcom file.
+ * Built once, when the file is loaded. Words are compared without regard
+ * to case or accents (as the collator from {@link Util#createCollator()}
+ * does), and each word of a query matches any indexed word that starts
+ * with it. People are identified by their position in the sorted list
+ * of everyone (from {@link PersonIndex}), so results come out sorted by
+ * name, and each word's posting list is just a sorted array of ints.
+ * Each posting also records (in its lowest bit) whether the word comes
+ * only from private events (or events of private partnerships) of the
+ * person, in which case only authorized users find them by it.
+ */
+public final class SearchIndex {
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    /* a growable list of postings (id << 1, plus 1 if private) */
+    private static final class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(final int id, final boolean isPrivate) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            }
+            this.ids[this.size++] = id << 1 | (isPrivate ? 1 : 0);
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(this.ids, this.size);
+        }
+    }
+
+    private final List<Person> people;
+    private final String[] terms;
+    private final int[][] postings;
+
+    /**
+     * @param people everyone, in sorted order
+     */
+    SearchIndex(final List<Person> people) {
+        this.people = people;
+
+        final Map<String, Postings> map = new HashMap<>(4096);
+        for (int id = 0; id < people.size(); ++id) {
+            final int i = id;
+            words(people.get(id)).forEach((term, isPrivate) -> map.computeIfAbsent(term, t -> new Postings()).add(i, isPrivate));
+        }
+
+        this.terms = map.keySet().toArray(new String[0]);
+        Arrays.sort(this.terms);
+        this.postings = new int[this.terms.length][];
+        for (int i = 0; i < this.terms.length; ++i) {
+            this.postings[i] = map.get(this.terms[i]).toArray();
+        }
+    }
+
+    /**
+     * Finds the people who match all words of the query.
+     *
+     * @param query words to search for
+     * @param role role of the user (private people, and people only matching private information,
+     * will only be found for authorized users)
+     * @param limit maximum number of people to return
+     * @return matching people, sorted by name
+     */
+    public List<Person> search(final String query, final RbacRole role, final int limit) {
+        final List<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final boolean authorized = role.authorized();
+        long[] found = null;
+        for (final String word : words) {
+            final long[] bits = new long[(this.people.size() + 63) >>> 6];
+            for (int t = lowerBound(word); t < this.terms.length && this.terms[t].startsWith(word); ++t) {
+                for (final int posting : this.postings[t]) {
+                    if (authorized || (posting & 1) == 0) {
+                        final int id = posting >>> 1;
+                        bits[id >>> 6] |= 1L << id;
+                    }
+                }
+            }
+            if (found == null) {
+                found = bits;
+            } else {
+                for (int i = 0; i < found.length; ++i) {
+                    found[i] &= bits[i];
+                }
+            }
+        }
+
+        final List<Person> results = new ArrayList<>(Math.min(limit, 64));
+        for (int w = 0; w < found.length && results.size() < limit; ++w) {
+            long word = found[w];
+            while (word != 0L && results.size() < limit) {
+                final Person person = this.people.get((w << 6) + Long.numberOfTrailingZeros(word));
+                if (!Util.privatize(person, role)) {
+                    results.add(person);
+                }
+                word &= word - 1L;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return number of distinct words in the index
+     */
+    public int size() {
+        return this.terms.length;
+    }
+
+    private int lowerBound(final String word) {
+        int lo = 0;
+        int hi = this.terms.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (this.terms[mid].compareTo(word) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /* each word, and whether it comes only from private information */
+    private static Map<String, Boolean> words(final Person person) {
+        final Map<String, Boolean> words = new HashMap<>(32);
+        addWords(person.getNameSortedDisplay(), false, words);
+        person.getEvents().forEach(e -> addEventWords(e, false, words));
+        person.getPartnerships().forEach(p -> p.getEvents().forEach(e -> addEventWords(e, p.isPrivate(), words)));
+        return words;
+    }
+
+    private static void addEventWords(final Event event, final boolean inPrivate, final Map<String, Boolean> words) {
+        final boolean isPrivate = inPrivate || event.isPrivate();
+        addWords(event.getPlace(), isPrivate, words);
+        if (!Objects.isNull(event.getDate())) {
+            addWords(event.getDate().getTabularString(), isPrivate, words);
+        }
+    }
+
+    private static void addWords(final String s, final boolean isPrivate, final Map<String, Boolean> words) {
+        tokenize(s).forEach(word -> words.merge(word, isPrivate, Boolean::logicalAnd));
+    }
+
+    /*
+     * Splits into words (runs of letters or digits), without accents, in lower case.
+     */
+    static List<String> tokenize(final String s) {
+        if (Objects.isNull(s) || s.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final String norm = MARKS.matcher(Normalizer.normalize(s, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+
+        final List<String> words = new ArrayList<>(8);
+        int start = -1;
+        for (int i = 0; i < norm.length(); ) {
+            final int cp = norm.codePointAt(i);
+            final boolean inWord = Character.isLetterOrDigit(cp);
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && 0 <= start) {
+                words.add(norm.substring(start, i));
+                start = -1;
+            }
+            i += Character.charCount(cp);
+        }
+        if (0 <= start) {
+            words.add(norm.substring(start));
+        }
+        return words;
+    }
+}
@@ -0,0 +1,75 @@
+package nu.mine.mosher.gedcom;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static nu.mine.mosher.logging.Jul.log;
+
+/*
+ * The static files (stylesheets and scripts) in one folder of the classpath
+ * (in a jar file, or a directory), read into memory, and compressed, once,
+ * at startup.
+ */
+final class StaticAssets {
+    private StaticAssets() {
+        throw new IllegalStateException();
+    }
+
+    /**
+     * @param folder folder of the classpath, for example "/public"
+     * @param gzip true to also compress each file
+     * @return each file, by its path within the folder (for example "/css/layout.css")
+     */
+    static Map<String, RenderedPage> load(final String folder, final boolean gzip) {
+        final Map<String, RenderedPage> assets = new TreeMap<>();
+        final URL url = StaticAssets.class.getResource(folder);
+        if (Objects.isNull(url)) {
+            log().warning("Cannot find static files in classpath folder "+folder);
+            return assets;
+        }
+        try {
+            final URI uri = url.toURI();
+            if (uri.getScheme().equals("jar")) {
+                try (final FileSystem jar = FileSystems.newFileSystem(uri, Collections.emptyMap())) {
+                    read(jar.getPath(folder), gzip, assets);
+                }
+            } else {
+                read(Paths.get(uri), gzip, assets);
+            }
+        } catch (final IOException | URISyntaxException e) {
+            throw new IllegalStateException("Cannot read static files from classpath folder "+folder, e);
+        }
+
+        final long raw = assets.values().stream().mapToLong(a -> a.utf8().length).sum();
+        final long compressed = assets.values().stream().mapToLong(a -> Objects.isNull(a.gzip()) ? a.utf8().length : a.gzip().length).sum();
+        log().info("Loaded "+assets.size()+" static files, "+raw / 1024L+" KB ("+compressed / 1024L+" KB compressed).");
+        return assets;
+    }
+
+    private static void read(final Path dir, final boolean gzip, final Map<String, RenderedPage> assets) throws IOException {
+        try (final Stream<Path> paths = Files.walk(dir)) {
+            for (final Path path : (Iterable<Path>)paths.filter(Files::isRegularFile)::iterator) {
+                final StringBuilder name = new StringBuilder();
+                for (final Path part : dir.relativize(path)) {
+                    name.append('/').append(part.toString());
+                }
+                final long lastModified = Files.getLastModifiedTime(path).toMillis();
+                assets.put(name.toString(), new RenderedPage(Files.readAllBytes(path), lastModified, gzip));
+            }
+        }
+    }
+
+    static String contentType(final String path) {
+        if (path.endsWith(".css")) {
+            return "text/css; charset=utf-8";
+        }
+        if (path.endsWith(".js")) {
+            return "application/javascript; charset=utf-8";
+        }
+        final String type = URLConnection.guessContentTypeFromName(path);
+        return Objects.isNull(type) ? "application/octet-stream" : type;
+    }
+}
@@ -0,0 +1,270 @@
+package nu.mine.mosher.gedcom;
+
+import java.util.*;
+
+/*
+ * Which files each UUID appears in. An open-addressing hash table (linear
+ * probing), keyed on the two longs of the UUID, with a bitset of file ids
+ * as the value, all in flat arrays of longs: no boxed UUIDs, map entries,
+ * or sets. A slot is empty if its bitset is empty. Looking up a UUID
+ * (find, then bits) does not allocate.
+ *
+ * Only modified while it is being built; after that, it is never changed
+ * (copy makes a new one instead, which is then updated for the one file
+ * that was reloaded: a copy of the arrays, without rehashing, plus work
+ * proportional to the number of people in that file, not in all files).
+ */
+final class UuidIndex {
+    private static final int MIN_CAPACITY = 1024;
+
+    /* two longs (most, then least significant bits) per slot */
+    private long[] keys;
+    /* words longs (the bitset of file ids) per slot */
+    private long[] bits;
+    private final int words;
+    private int size;
+
+    /**
+     * @param files number of file ids that may be used (0 through files-1)
+     * @param expected expected number of UUIDs
+     */
+    UuidIndex(final int files, final int expected) {
+        this.words = Math.max(1, (files + 63) >>> 6);
+        final int capacity = capacityFor(expected);
+        this.keys = new long[capacity * 2];
+        this.bits = new long[capacity * this.words];
+    }
+
+    private UuidIndex(final UuidIndex that, final int files) {
+        this.words = Math.max(that.words, (files + 63) >>> 6);
+        this.keys = that.keys.clone();
+        this.size = that.size;
+        if (this.words == that.words) {
+            this.bits = that.bits.clone();
+        } else {
+            /* (slots don't depend on the number of words, so they stay where they are) */
+            this.bits = new long[capacity() * this.words];
+            for (int slot = 0; slot < capacity(); ++slot) {
+                System.arraycopy(that.bits, slot * that.words, this.bits, slot * this.words, that.words);
+            }
+        }
+    }
+
+    /**
+     * Copy of this index, to be updated (with adding and removing) for a reloaded file.
+     *
+     * @param files number of file ids that may be used in the copy
+     * @return the copy
+     */
+    UuidIndex copy(final int files) {
+        return new UuidIndex(this, files);
+    }
+
+    /**
+     * Adds every UUID appended to the returned set, as appearing in the given file.
+     * The set itself remains empty.
+     *
+     * @param file file id
+     * @return set to append UUIDs to
+     */
+    Set<UUID> adding(final int file) {
+        return new AbstractSet<UUID>() {
+            @Override
+            public boolean add(final UUID uuid) {
+                UuidIndex.this.add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), file);
+                return true;
+            }
+
+            @Override
+            public Iterator<UUID> iterator() {
+                return Collections.emptyIterator();
+            }
+
+            @Override
+            public int size() {
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Removes every UUID appended to the returned set from the given file
+     * (and from the index, if it is in no other file). The set itself remains empty.
+     *
+     * @param file file id
+     * @return set to append UUIDs to
+     */
+    Set<UUID> removing(final int file) {
+        return new AbstractSet<UUID>() {
+            @Override
+            public boolean add(final UUID uuid) {
+                UuidIndex.this.remove(uuid, file);
+                return true;
+            }
+
+            @Override
+            public Iterator<UUID> iterator() {
+                return Collections.emptyIterator();
+            }
+
+            @Override
+            public int size() {
+                return 0;
+            }
+        };
+    }
+
+    void add(final long hi, final long lo, final int file) {
+        if (capacity() * 3 < (this.size + 1) * 5) {
+            grow();
+        }
+        int slot = home(hi, lo);
+        while (!isEmpty(slot) && !(this.keys[slot * 2] == hi && this.keys[slot * 2 + 1] == lo)) {
+            slot = (slot + 1) & (capacity() - 1);
+        }
+        if (isEmpty(slot)) {
+            this.keys[slot * 2] = hi;
+            this.keys[slot * 2 + 1] = lo;
+            ++this.size;
+        }
+        this.bits[slot * this.words + (file >>> 6)] |= 1L << file;
+    }
+
+    /**
+     * @return slot of the UUID, or -1 if it is not in any file
+     */
+    int find(final UUID uuid) {
+        final long hi = uuid.getMostSignificantBits();
+        final long lo = uuid.getLeastSignificantBits();
+        int slot = home(hi, lo);
+        while (!isEmpty(slot)) {
+            if (this.keys[slot * 2] == hi && this.keys[slot * 2 + 1] == lo) {
+                return slot;
+            }
+            slot = (slot + 1) & (capacity() - 1);
+        }
+        return -1;
+    }
+
+    private void remove(final UUID uuid, final int file) {
+        final int slot = find(uuid);
+        if (slot < 0) {
+            return;
+        }
+        this.bits[slot * this.words + (file >>> 6)] &= ~(1L << file);
+        if (isEmpty(slot)) {
+            --this.size;
+            closeGap(slot);
+        }
+    }
+
+    /*
+     * Moves back any later entries in the probe sequence that can no longer be
+     * found past the (newly) empty slot (so no "deleted" markers are needed).
+     */
+    private void closeGap(final int removed) {
+        final int mask = capacity() - 1;
+        int gap = removed;
+        for (int slot = (removed + 1) & mask; !isEmpty(slot); slot = (slot + 1) & mask) {
+            final int home = home(this.keys[slot * 2], this.keys[slot * 2 + 1]);
+            /* whether home is cyclically within (gap, slot], in which case the entry stays */
+            final boolean stays = gap <= slot ? gap < home && home <= slot : gap < home || home <= slot;
+            if (!stays) {
+                this.keys[gap * 2] = this.keys[slot * 2];
+                this.keys[gap * 2 + 1] = this.keys[slot * 2 + 1];
+                System.arraycopy(this.bits, slot * this.words, this.bits, gap * this.words, this.words);
+                Arrays.fill(this.bits, slot * this.words, (slot + 1) * this.words, 0L);
+                gap = slot;
+            }
+        }
+    }
+
+    /**
+     * @return number of slots (slots returned by find are less than this; they
+     * do not change once the index is built, so may index a parallel array)
+     */
+    int slots() {
+        return capacity();
+    }
+
+    int words() {
+        return this.words;
+    }
+
+    /**
+     * @return the given word of the bitset of file ids, in the given slot
+     */
+    long bits(final int slot, final int word) {
+        return this.bits[slot * this.words + word];
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return approximate memory used, in bytes
+     */
+    long bytes() {
+        return 8L * (this.keys.length + this.bits.length);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d UUIDs in %d slots, %d KB", this.size, capacity(), bytes() / 1024L);
+    }
+
+    private int capacity() {
+        return this.keys.length / 2;
+    }
+
+    private boolean isEmpty(final int slot) {
+        return isEmpty(this.bits, slot);
+    }
+
+    private boolean isEmpty(final long[] bits, final int slot) {
+        for (int w = 0; w < this.words; ++w) {
+            if (bits[slot * this.words + w] != 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int home(final long hi, final long lo) {
+        long h = hi ^ lo;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int)h & (capacity() - 1);
+    }
+
+    private void grow() {
+        final long[] oldKeys = this.keys;
+        final long[] oldBits = this.bits;
+        final int oldCapacity = capacity();
+        this.keys = new long[oldKeys.length * 2];
+        this.bits = new long[oldBits.length * 2];
+        for (int slot = 0; slot < oldCapacity; ++slot) {
+            if (isEmpty(oldBits, slot)) {
+                continue;
+            }
+            int to = home(oldKeys[slot * 2], oldKeys[slot * 2 + 1]);
+            while (!isEmpty(to)) {
+                to = (to + 1) & (capacity() - 1);
+            }
+            this.keys[to * 2] = oldKeys[slot * 2];
+            this.keys[to * 2 + 1] = oldKeys[slot * 2 + 1];
+            System.arraycopy(oldBits, slot * this.words, this.bits, to * this.words, this.words);
+        }
+    }
+
+    /* power of two, no more than 60% full */
+    private static int capacityFor(final int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < expected * 5) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
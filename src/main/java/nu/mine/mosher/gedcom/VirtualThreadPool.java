@@ -0,0 +1,86 @@
+package nu.mine.mosher.gedcom;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Jetty thread pool that runs every task (each request, and Jetty's own
+ * acceptor and selector loops) on a new virtual thread, so blocking (on
+ * Google's key server, or on files) does not hold up other requests. Needs
+ * Java 21 or later at run time; the executor is looked up reflectively, so
+ * this still compiles for Java 11. Stopped along with the Jetty Server
+ * (which manages its thread pool's life cycle), which shuts the executor
+ * down, and so lets join return.
+ */
+final class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+    /* how long stopping waits for running tasks to finish, before interrupting them */
+    private static final long STOP_TIMEOUT_SECONDS = 5L;
+
+    private final ExecutorService executor;
+    private final AtomicInteger running = new AtomicInteger();
+
+    private VirtualThreadPool(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return a new pool, or empty if this JVM does not have virtual threads
+     */
+    static Optional<VirtualThreadPool> create() {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return Optional.of(new VirtualThreadPool((ExecutorService)factory.invoke(null)));
+        } catch (final ReflectiveOperationException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        this.running.incrementAndGet();
+        this.executor.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                this.running.decrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        this.executor.shutdown();
+        if (!this.executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            this.executor.shutdownNow();
+        }
+        super.doStop();
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        while (!this.executor.awaitTermination(1L, TimeUnit.DAYS)) {
+            /* keep waiting */
+        }
+    }
+
+    /* number of tasks running (virtual threads are not pooled, so this is also the number of threads) */
+    @Override
+    public int getThreads() {
+        return this.running.get();
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
@@ -0,0 +1,69 @@
+package nu.mine.mosher.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of durations, in fixed buckets (from half a millisecond
+ * to ten seconds). Each bucket is a striped counter ({@link LongAdder}),
+ * so recording a duration never blocks, and threads recording at the same
+ * time rarely contend.
+ */
+public final class Histogram {
+    /* upper bounds of the buckets, in seconds */
+    private static final double[] BOUNDS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0 };
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS.length];
+    static {
+        for (int i = 0; i < BOUNDS.length; ++i) {
+            BOUNDS_NANOS[i] = Math.round(BOUNDS[i] * 1e9);
+        }
+    }
+
+    /* the last bucket is for everything over the largest bound */
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < this.buckets.length; ++i) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos duration, in nanoseconds
+     */
+    public void observe(final long nanos) {
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && BOUNDS_NANOS[i] < nanos) {
+            ++i;
+        }
+        this.buckets[i].increment();
+        this.sumNanos.add(nanos);
+    }
+
+    /**
+     * @param startNanos start time, from {@link System#nanoTime()}
+     */
+    public void observeSince(final long startNanos) {
+        observe(System.nanoTime() - startNanos);
+    }
+
+    public long count() {
+        long count = 0L;
+        for (final LongAdder bucket : this.buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /* in Prometheus text format: cumulative buckets, then sum and count */
+    void write(final String name, final String labels, final StringBuilder out) {
+        long cumulative = 0L;
+        for (int i = 0; i < this.buckets.length; ++i) {
+            cumulative += this.buckets[i].sum();
+            final String le = i < BOUNDS.length ? Double.toString(BOUNDS[i]) : "+Inf";
+            out.append(name).append("_bucket").append(Metrics.withLabel(labels, "le", le)).append(' ').append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum").append(labels).append(' ').append(this.sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count").append(labels).append(' ').append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,119 @@
+package nu.mine.mosher.metrics;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.*;
+
+/**
+ * Registry of metrics, written in Prometheus text format.
+ * Metrics are registered once (at start-up); callers keep the returned
+ * {@link Histogram} or {@link LongAdder} and update it directly, so
+ * recording a value never touches the registry. Values that are
+ * already kept elsewhere (cache statistics, for example) are
+ * registered as suppliers, read only when the metrics are written.
+ */
+public final class Metrics {
+    @FunctionalInterface
+    private interface Sample {
+        void write(String name, String labels, StringBuilder out);
+    }
+
+    private static final class Family {
+        private final String help;
+        private final String type;
+        private final Map<String, Sample> samples = new ConcurrentSkipListMap<>();
+
+        private Family(final String help, final String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param name metric name
+     * @param help description
+     * @param labels label names and values, alternating
+     * @return a new histogram
+     */
+    public Histogram histogram(final String name, final String help, final String... labels) {
+        return histogram(name, help, new Histogram(), labels);
+    }
+
+    /**
+     * Registers an existing histogram.
+     * @return the histogram
+     */
+    public Histogram histogram(final String name, final String help, final Histogram histogram, final String... labels) {
+        add(name, help, "histogram", labels, histogram::write);
+        return histogram;
+    }
+
+    /**
+     * @return a new counter
+     */
+    public LongAdder counter(final String name, final String help, final String... labels) {
+        final LongAdder counter = new LongAdder();
+        counter(name, help, counter::sum, labels);
+        return counter;
+    }
+
+    /**
+     * Registers a counter kept elsewhere.
+     */
+    public void counter(final String name, final String help, final LongSupplier value, final String... labels) {
+        add(name, help, "counter", labels, (n, l, out) -> out.append(n).append(l).append(' ').append(value.getAsLong()).append('\n'));
+    }
+
+    /**
+     * Registers a gauge (a value that can go up or down) kept elsewhere.
+     */
+    public void gauge(final String name, final String help, final DoubleSupplier value, final String... labels) {
+        add(name, help, "gauge", labels, (n, l, out) -> out.append(n).append(l).append(' ').append(value.getAsDouble()).append('\n'));
+    }
+
+    /**
+     * @return all metrics, in Prometheus text format
+     */
+    public String write() {
+        final StringBuilder out = new StringBuilder(8 * 1024);
+        this.families.forEach((name, family) -> {
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            family.samples.forEach((labels, sample) -> sample.write(name, labels, out));
+        });
+        return out.toString();
+    }
+
+    private void add(final String name, final String help, final String type, final String[] labels, final Sample sample) {
+        final Family family = this.families.computeIfAbsent(name, k -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric "+name+" is already registered as a "+family.type);
+        }
+        if (family.samples.putIfAbsent(labels(labels), sample) != null) {
+            throw new IllegalArgumentException("Metric "+name+" is already registered with labels "+Arrays.toString(labels));
+        }
+    }
+
+    private static String labels(final String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be names and values: "+Arrays.toString(labels));
+        }
+        String s = "";
+        for (int i = 0; i < labels.length; i += 2) {
+            s = withLabel(s, labels[i], labels[i + 1]);
+        }
+        return s;
+    }
+
+    /* adds one label to a (possibly empty) formatted label set */
+    static String withLabel(final String labels, final String name, final String value) {
+        final String label = name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+        if (labels.isEmpty()) {
+            return "{" + label + "}";
+        }
+        return labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+}
@@ -1,15 +1,157 @@
 package nu.mine.mosher.template;
 
 import net.sourceforge.templat.Templat;
+import nu.mine.mosher.ObjectPool;
 import spark.*;
 
-import java.net.URL;
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
 
+import static nu.mine.mosher.logging.Jul.log;
+
+/*
+ * Registry of templates. Each view's Templat is constructed once, and the
+ * same instance is rendered by every request, on any number of threads at
+ * once. Templat has no way to get at (or keep) a parsed form of a template,
+ * so this cannot make it parse a template only once; whatever it does on
+ * each render, it still does. (How much keeping the instance saves, and that
+ * concurrent renders of one instance come out the same as single-threaded
+ * ones, are checked by TemplateBenchmark, in src/jmh.)
+ * In "reload" mode (for development), a view is loaded again before
+ * rendering if any template file in its directory has changed on disk
+ * (so changes to @include'd templates are picked up, too).
+ */
 public class TemplAtEngine extends TemplateEngine {
+    private static final class Loaded {
+        private final Templat tat;
+        private final long lastModified;
+
+        private Loaded(final URL url) {
+            this.tat = new Templat(url);
+            this.lastModified = lastModified(url);
+        }
+    }
+
+    /*
+     * rendering buffers are reused (pooled, rather than kept per thread, as there
+     * may be a virtual thread for each request), unless they grew too big to keep around
+     */
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+    private static final ObjectPool<StringBuilder> buffers = new ObjectPool<>(4 * Runtime.getRuntime().availableProcessors(),
+        () -> new StringBuilder(16 * 1024),
+        sb -> {
+            sb.setLength(0);
+            return sb.capacity() <= MAX_RETAINED_BUFFER;
+        });
+    private static final int CHUNK = 8 * 1024;
+
+    private final ConcurrentMap<String, Loaded> cache = new ConcurrentHashMap<>(32);
+    private final boolean reload;
+
+    public TemplAtEngine() {
+        this(Boolean.parseBoolean(System.getenv("TEMPLAT_RELOAD")));
+    }
+
+    public TemplAtEngine(final boolean reload) {
+        this.reload = reload;
+        if (this.reload) {
+            log().warning("Templates will be reloaded when changed (TEMPLAT_RELOAD).");
+        }
+    }
+
+    /**
+     * Loads the given views now, so the first requests don't pay for it.
+     * @param views names of template files (relative to this class)
+     */
+    public void preload(final String... views) {
+        for (final String view : views) {
+            get(view);
+        }
+    }
+
     @Override
     public String render(final ModelAndView modelAndView) {
-        final URL nameView = getClass().getResource(modelAndView.getViewName());
-        return render(new Templat(nameView), (Object[])modelAndView.getModel());
+        return render(get(modelAndView.getViewName()).tat, (Object[])modelAndView.getModel());
+    }
+
+    /**
+     * Renders a view, and writes it, without leading or trailing white space
+     * (exactly as {@link String#trim()} would remove), to the given writer.
+     * This avoids making any String copies of the (possibly large) page.
+     *
+     * @param view name of template file (relative to this class)
+     * @param args arguments to pass to the template
+     * @param out where to write the rendered page
+     * @throws IOException if writing fails
+     */
+    public void render(final String view, final Object[] args, final Writer out) throws IOException {
+        final StringBuilder sb = buffers.take();
+        try {
+            render(get(view).tat, args, sb);
+            writeTrimmed(sb, out);
+        } finally {
+            buffers.give(sb);
+        }
+    }
+
+    private static void writeTrimmed(final StringBuilder sb, final Writer out) throws IOException {
+        int start = 0;
+        int end = sb.length();
+        while (start < end && sb.charAt(start) <= ' ') {
+            ++start;
+        }
+        while (start < end && sb.charAt(end - 1) <= ' ') {
+            --end;
+        }
+
+        final char[] chunk = new char[Math.min(CHUNK, end - start)];
+        while (start < end) {
+            final int n = Math.min(chunk.length, end - start);
+            sb.getChars(start, start + n, chunk, 0);
+            out.write(chunk, 0, n);
+            start += n;
+        }
+    }
+
+    private Loaded get(final String view) {
+        Loaded loaded = this.cache.computeIfAbsent(view, this::load);
+        if (this.reload && loaded.lastModified != lastModified(resource(view))) {
+            log().info("Reloading changed template: "+view);
+            loaded = load(view);
+            this.cache.put(view, loaded);
+        }
+        return loaded;
+    }
+
+    private Loaded load(final String view) {
+        final URL url = resource(view);
+        if (url == null) {
+            throw new IllegalStateException("Cannot find template: "+view);
+        }
+        return new Loaded(url);
+    }
+
+    private URL resource(final String view) {
+        return getClass().getResource(view);
+    }
+
+    private static long lastModified(final URL url) {
+        if (url == null || !url.getProtocol().equals("file")) {
+            return 0L;
+        }
+        try {
+            final File[] rFile = new File(url.toURI()).getParentFile().listFiles(f -> f.getName().endsWith(".tat"));
+            long latest = 0L;
+            if (rFile != null) {
+                for (final File file : rFile) {
+                    latest = Math.max(latest, file.lastModified());
+                }
+            }
+            return latest;
+        } catch (final URISyntaxException e) {
+            return 0L;
+        }
     }
 
     private static String render(final Templat tat, final Object[] varargs) {